@@ -0,0 +1,389 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Micro benchmarks for the hot paths of {@link LAC}, run on synthetic data
+ * generated by {@link LACSyntheticData}. Each benchmark is warmed up, then
+ * measured for a fixed time; the report shows throughput, latency percentiles
+ * and the allocation rate of the measuring thread.
+ *
+ * <pre>
+ * Usage: LACBenchmark [options] [benchmark ...]
+ *   --instances N   training instances (default 20000)
+ *   --test N        test instances (default 2000)
+ *   --features N    distinct features (default 5000)
+ *   --density D     average fraction of the features in an instance (default 0.002)
+ *   --classes N     distinct classes (default 4)
+ *   --skew S        Zipf exponent of the feature distribution (default 1.0)
+ *   --mode M        LISTS, BITMAPS or ADAPTIVE (default LISTS)
+ *   --warmup S      warm-up seconds per benchmark (default 2)
+ *   --time S        measured seconds per benchmark (default 5)
+ *   --seed N        random seed (default 1)
+ * </pre>
+ *
+ * Benchmarks: build, intersect, classify-cold, classify-warm, deserialize,
+ * load, map.
+ * All of them run when none is given.
+ */
+public class LACBenchmark
+{
+	/**
+	 * A single benchmarked operation.
+	 */
+	private interface Operation
+	{
+		void run(int iteration) throws Exception;
+	}
+
+	private final Map<String, String> options = new LinkedHashMap<String, String>();
+	private final List<String> benchmarks = new ArrayList<String>();
+
+	private List<String[]> training;
+	private List<String[]> test;
+	private File trainingFile;
+
+	public static void main(String[] args) throws Exception
+	{
+		LACBenchmark benchmark = new LACBenchmark();
+		benchmark.parse(args);
+		benchmark.run();
+	}
+
+	private void parse(String[] args)
+	{
+		options.put("instances", "20000");
+		options.put("test", "2000");
+		options.put("features", "5000");
+		options.put("density", "0.002");
+		options.put("classes", "4");
+		options.put("skew", "1.0");
+		options.put("mode", "LISTS");
+		options.put("warmup", "2");
+		options.put("time", "5");
+		options.put("seed", "1");
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].startsWith("--"))
+			{
+				String name = args[i].substring(2);
+				if (!options.containsKey(name) || i + 1 == args.length)
+				{
+					throw new IllegalArgumentException("Invalid option: " + args[i]);
+				}
+				options.put(name, args[++i]);
+			}
+			else
+			{
+				benchmarks.add(args[i]);
+			}
+		}
+		if (benchmarks.isEmpty())
+		{
+			benchmarks.addAll(Arrays.asList("build", "intersect", "classify-cold", "classify-warm", "deserialize",
+					"load", "map"));
+		}
+	}
+
+	private int intOption(String name)
+	{
+		return Integer.parseInt(options.get(name));
+	}
+
+	private double doubleOption(String name)
+	{
+		return Double.parseDouble(options.get(name));
+	}
+
+	private void run() throws Exception
+	{
+		System.out.println("# " + options);
+		LACSyntheticData generator = new LACSyntheticData(intOption("features"), doubleOption("density"),
+				intOption("classes"), doubleOption("skew"), intOption("seed"));
+		training = generator.generate(intOption("instances"));
+		test = generator.generate(intOption("test"));
+		trainingFile = File.createTempFile("lac-benchmark", ".lac");
+		trainingFile.deleteOnExit();
+		LACSyntheticData.write(training, trainingFile);
+
+		System.out.println(String.format("%-16s %10s %12s %10s %10s %10s %10s %10s %12s %10s", "benchmark", "ops",
+				"ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "alloc B/op", "alloc MB/s"));
+		for (String name : benchmarks)
+		{
+			if (name.equals("build"))
+			{
+				benchmarkBuild();
+			}
+			else if (name.equals("intersect"))
+			{
+				benchmarkIntersect();
+			}
+			else if (name.equals("classify-cold"))
+			{
+				benchmarkClassify(name, false);
+			}
+			else if (name.equals("classify-warm"))
+			{
+				benchmarkClassify(name, true);
+			}
+			else if (name.equals("deserialize"))
+			{
+				benchmarkDeserialize();
+			}
+			else if (name.equals("load"))
+			{
+				benchmarkLoad();
+			}
+			else if (name.equals("map"))
+			{
+				benchmarkMap();
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown benchmark: " + name);
+			}
+		}
+	}
+
+	private LAC buildClassifier() throws Exception
+	{
+		LAC classifier = new LAC();
+		classifier.setOccurrenceMode(LACFeatureOccurrences.Mode.valueOf(options.get("mode")));
+		classifier.buildClassifierFromLacStyle(new FileInputStream(trainingFile).getChannel());
+		return classifier;
+	}
+
+	/**
+	 * Builds a lookup-only test instance, as {@link LAC} does when
+	 * classifying.
+	 */
+	private static LACInstance testInstance(LACInstances trainingInstances, String[] tokens)
+	{
+		LACInstance instance = trainingInstances.createNewTestInstance();
+		instance.setHiddenClass(tokens[1]);
+		for (int i = 2; i < tokens.length; i++)
+		{
+			instance.addFeature(tokens[i]);
+		}
+		return instance;
+	}
+
+	private void benchmarkBuild() throws Exception
+	{
+		measure("build", new Operation()
+		{
+			public void run(int iteration) throws Exception
+			{
+				buildClassifier();
+			}
+		});
+	}
+
+	private void benchmarkIntersect() throws Exception
+	{
+		LAC classifier = buildClassifier();
+		classifier.setIntersectionCacheCapacity(0);
+		final LACInstances trainingInstances = classifier.getTrainingInstances();
+
+		Random random = new Random(intOption("seed"));
+		final List<LACPatternKey> patterns = new ArrayList<LACPatternKey>();
+		for (String[] tokens : test)
+		{
+			LACInstance instance = testInstance(trainingInstances, tokens);
+			int numFeatures = instance.getNumFeatures();
+			if (numFeatures < 2)
+			{
+				continue;
+			}
+			int[] pattern = new int[2 + random.nextInt(2)];
+			for (int i = 0; i < pattern.length; i++)
+			{
+				pattern[i] = instance.getIndexedFeatures()[random.nextInt(numFeatures)];
+			}
+			Arrays.sort(pattern);
+			patterns.add(LACPatternKey.copyOf(pattern, pattern.length));
+		}
+
+		measure("intersect", new Operation()
+		{
+			public void run(int iteration)
+			{
+				trainingInstances.getInstancesWithFeatures(patterns.get(iteration % patterns.size()));
+			}
+		});
+	}
+
+	private void benchmarkClassify(String name, boolean warm) throws Exception
+	{
+		LAC classifier = buildClassifier();
+		if (!warm)
+		{
+			classifier.setRulesCacheCapacity(0);
+			classifier.setIntersectionCacheCapacity(0);
+		}
+		final LACRules rules = classifier.getRules();
+		LACInstances trainingInstances = classifier.getTrainingInstances();
+		final List<LACInstance> instances = new ArrayList<LACInstance>();
+		for (String[] tokens : test)
+		{
+			instances.add(testInstance(trainingInstances, tokens));
+		}
+
+		measure(name, new Operation()
+		{
+			public void run(int iteration) throws Exception
+			{
+				rules.calculateProbabilities(instances.get(iteration % instances.size()), new LACCacheStatistics());
+			}
+		});
+	}
+
+	private void benchmarkDeserialize() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(buildClassifier());
+		output.close();
+		final byte[] model = bytes.toByteArray();
+
+		measure("deserialize", new Operation()
+		{
+			public void run(int iteration) throws Exception
+			{
+				ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(model));
+				input.readObject();
+				input.close();
+			}
+		});
+	}
+
+	private void benchmarkLoad() throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		buildClassifier().saveModel(bytes);
+		final byte[] model = bytes.toByteArray();
+
+		measure("load", new Operation()
+		{
+			public void run(int iteration) throws Exception
+			{
+				LAC.loadModel(new ByteArrayInputStream(model));
+			}
+		});
+	}
+
+	private void benchmarkMap() throws Exception
+	{
+		final File model = File.createTempFile("lac-benchmark", ".model");
+		model.deleteOnExit();
+		FileOutputStream output = new FileOutputStream(model);
+		try
+		{
+			buildClassifier().saveModel(output);
+		}
+		finally
+		{
+			output.close();
+		}
+
+		measure("map", new Operation()
+		{
+			public void run(int iteration) throws Exception
+			{
+				FileInputStream input = new FileInputStream(model);
+				try
+				{
+					LAC.mapModel(input.getChannel());
+				}
+				finally
+				{
+					input.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Warms up and measures an operation, printing a line of the report.
+	 */
+	private void measure(String name, Operation operation) throws Exception
+	{
+		long warmupEnd = System.nanoTime() + intOption("warmup") * 1000000000L;
+		int iteration = 0;
+		while (System.nanoTime() < warmupEnd)
+		{
+			operation.run(iteration++);
+		}
+
+		long[] latencies = new long[1024];
+		int ops = 0;
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + intOption("time") * 1000000000L;
+		long now = start;
+		while (now < end)
+		{
+			operation.run(iteration++);
+			long after = System.nanoTime();
+			if (ops == latencies.length)
+			{
+				latencies = Arrays.copyOf(latencies, ops * 2);
+			}
+			latencies[ops++] = after - now;
+			now = after;
+		}
+		long allocated = allocatedBytes() - allocatedBefore;
+		double seconds = (now - start) / 1e9;
+
+		Arrays.sort(latencies, 0, ops);
+		System.out.println(String.format("%-16s %10d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f %12s %10s", name, ops,
+				ops / seconds, percentile(latencies, ops, 0.5), percentile(latencies, ops, 0.9),
+				percentile(latencies, ops, 0.99), percentile(latencies, ops, 0.999), latencies[ops - 1] / 1e3,
+				allocated < 0 ? "n/a" : String.format("%.0f", (double) allocated / ops),
+				allocated < 0 ? "n/a" : String.format("%.1f", allocated / seconds / (1024 * 1024))));
+	}
+
+	private static double percentile(long[] sorted, int size, double percentile)
+	{
+		int index = (int) Math.min(size - 1, Math.ceil(percentile * size) - 1);
+		return sorted[Math.max(0, index)] / 1e3;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread, or -1 if the
+	 * JVM cannot tell.
+	 */
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates datasets in the LAC format (<code>id class feature feature ...</code>)
+ * with a controlled shape:
+ * <ul>
+ * <li><b>instances</b>: number of lines;</li>
+ * <li><b>features</b>: number of distinct features;</li>
+ * <li><b>density</b>: average fraction of the distinct features present in
+ * each instance;</li>
+ * <li><b>classes</b>: number of distinct classes;</li>
+ * <li><b>skew</b>: exponent of the Zipf distribution features are drawn from.
+ * Zero draws features uniformly, larger values make a few features very
+ * frequent and most of them rare.</li>
+ * </ul>
+ * Each class prefers its own slice of the features, so that rules have
+ * different confidences for different classes.
+ */
+public class LACSyntheticData
+{
+	private final int features;
+	private final double density;
+	private final int classes;
+	private final double[] cumulative;
+	private final Random random;
+
+	public LACSyntheticData(int features, double density, int classes, double skew, long seed)
+	{
+		this.features = features;
+		this.density = density;
+		this.classes = classes;
+		this.random = new Random(seed);
+
+		cumulative = new double[features];
+		double sum = 0;
+		for (int i = 0; i < features; i++)
+		{
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < features; i++)
+		{
+			cumulative[i] /= sum;
+		}
+	}
+
+	/**
+	 * Generates the given number of instances.
+	 *
+	 * @param instances
+	 * @return one array of tokens per instance, as produced by splitting a line
+	 *         on spaces
+	 */
+	public List<String[]> generate(int instances)
+	{
+		int featuresPerInstance = Math.max(1, (int) Math.round(density * features));
+		List<String[]> result = new ArrayList<String[]>(instances);
+		for (int i = 0; i < instances; i++)
+		{
+			int clazz = random.nextInt(classes);
+			int length = 1 + random.nextInt(2 * featuresPerInstance);
+			String[] tokens = new String[length + 2];
+			tokens[0] = Integer.toString(i);
+			tokens[1] = "CLASS=" + clazz;
+			for (int j = 0; j < length; j++)
+			{
+				tokens[j + 2] = "f" + drawFeature(clazz);
+			}
+			result.add(tokens);
+		}
+		return result;
+	}
+
+	/**
+	 * Draws a feature from the Zipf distribution, shifted towards the slice of
+	 * the features preferred by the given class half of the time.
+	 */
+	private int drawFeature(int clazz)
+	{
+		double u = random.nextDouble();
+		int low = 0;
+		int high = features - 1;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] < u)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+
+		if (random.nextBoolean())
+		{
+			return (low + clazz * (features / classes)) % features;
+		}
+		return low;
+	}
+
+	/**
+	 * Writes instances to a file in the LAC format.
+	 *
+	 * @param instances
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(List<String[]> instances, File file) throws IOException
+	{
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try
+		{
+			for (String[] tokens : instances)
+			{
+				for (int i = 0; i < tokens.length; i++)
+				{
+					if (i > 0)
+					{
+						writer.write(' ');
+					}
+					writer.write(tokens[i]);
+				}
+				writer.write('\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package br.ufmg.dcc.bigdata;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class BatchResult implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3385026000420945167L;
+	long misses;
+	long hits;
+	List<Result> results;
+	
+	public BatchResult(long misses, long hits, List<Result> results) {
+		this.misses = misses;
+		this.hits = hits;
+		this.results = results;
+	}
+
+	/**
+	 * @return the misses of all classified instances
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the hits of all classified instances
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the result of each instance, in the order they were given
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+}
@@ -17,10 +17,9 @@ import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import br.ufmg.dcc.bigdata.BatchResult;
 import br.ufmg.dcc.bigdata.Result;
 
-import au.com.bytecode.opencsv.CSVReader;
-
 import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -36,8 +35,8 @@ import java.io.StringReader;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.net.URI;
+import java.util.concurrent.ForkJoinPool;
 
-import weka.core.Instances;
 import weka.classifiers.rules.LAC;
 import org.apache.commons.logging.*;
 
@@ -45,107 +44,261 @@ import org.apache.commons.logging.*;
 
 public class Ladoop {
         
-	public static class Map extends Mapper<Text, Text, Text, IntWritable> {
+	/**
+	 * Configuration key of the number of test lines classified at a time by
+	 * each mapper.
+	 */
+	public static final String BATCH_SIZE = "ladoop.batch.size";
+	
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * Configuration key of the number of threads classifying the batches of
+	 * each mapper.
+	 */
+	public static final String THREADS = "ladoop.threads";
+	
+	/**
+	 * Name of the model in the distributed cache, and of the link to it in
+	 * the working directory of tasks.
+	 */
+	private static final String MODEL_NAME = "LacIndex.model";
+	
+	private static LAC sharedClassifier;
+	private static ForkJoinPool sharedPool;
+	
+	/**
+	 * Returns the model of the job, mapping it on first use. It is shared by
+	 * all map tasks run by this JVM, and by all of their threads, as LAC can
+	 * classify instances from many threads at once.
+	 */
+	static synchronized LAC getSharedClassifier(Configuration conf) throws IOException {
+		if (sharedClassifier == null) {
+			//Map LAC model from the node's copy in the distributed cache, sharing its pages with the other tasks of the node
+			FileInputStream model = new FileInputStream(findModel(conf));
+			try {
+				sharedClassifier = LAC.mapModel(model.getChannel());
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("Cannot load LAC model", e);
+			} finally {
+				model.close();
+			}
+		}
+		return sharedClassifier;
+	}
+	
+	/**
+	 * Returns the local copy of the model made by the distributed cache, or
+	 * the link to it in the working directory if the copy is not listed.
+	 */
+	private static File findModel(Configuration conf) throws IOException {
+		Path[] files = DistributedCache.getLocalCacheFiles(conf);
+		if (files != null) {
+			for (Path file : files) {
+				if (file.getName().equals(MODEL_NAME)) {
+					return new File(file.toUri().getPath());
+				}
+			}
+		}
+		return new File(MODEL_NAME);
+	}
+	
+	/**
+	 * Returns the pool of threads classifying batches, created on first use
+	 * and shared by all map tasks run by this JVM.
+	 */
+	static synchronized ForkJoinPool getSharedPool(int threads) {
+		if (sharedPool == null) {
+			sharedPool = new ForkJoinPool(threads);
+		}
+		return sharedPool;
+	}
+	
+	/**
+	 * Classifies test lines in batches. The lines come from splits of any
+	 * size, aligned to lines, so the number of map tasks follows the size of
+	 * the test set rather than its number of files. The cache hits and misses
+	 * of a task are summed up and written once, when it ends. <br/>
+	 * With more than one thread, each batch is split among the threads of a
+	 * pool, which classify it with the model shared by the whole JVM, so a
+	 * node can run a few tasks using all of its cores without loading the
+	 * model once per core.
+	 */
+	public static class Map extends Mapper<LongWritable, Text, Text, LongWritable> {
 	  
-		//private
-		private final static IntWritable one = new IntWritable(1);
-	    private LAC classifier = new LAC();
+		private LAC classifier;
+		private ForkJoinPool pool;
 		private final static Text missesText = new Text("misses");
 		private final static Text hitsText = new Text("hits");
+		private List<String[]> batch;
+		private int batchSize;
+		private long misses;
+		private long hits;
 		
 		
 		 protected void setup(Context context) throws IOException, InterruptedException {
 			 super.setup(context);
-			 
-			 //Load LAC object from disk
-			 try {
-				 ObjectInputStream obj = new ObjectInputStream(new FileInputStream("/tmp/LacIndex.obj"));
-		  		 this.classifier = (LAC) obj.readObject();
-		  		 obj.close();
-			 } catch (ClassNotFoundException e) {
-				 e.printStackTrace();
+			 batchSize = context.getConfiguration().getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+			 batch = new ArrayList<String[]>(batchSize);
+			 this.classifier = getSharedClassifier(context.getConfiguration());
+			 int threads = context.getConfiguration().getInt(THREADS, 1);
+			 if (threads > 1) {
+				 this.pool = getSharedPool(threads);
 			 }
 		 }  
 
 
-		public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
-			String line = value.toString();
-		    try 
-		    {
-		    	Result result = this.classifier.distributionForInstance(line.split(" "));
-		        context.write(missesText, new IntWritable(result.getMisses()));
-		        context.write(hitsText, new IntWritable(result.getHits()));
-		    } catch (Exception e) {
-		    	System.out.println("MAP ERROR");
-		    	e.printStackTrace();
-		    }
+		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+			batch.add(value.toString().split(" "));
+			if (batch.size() >= batchSize) {
+				classify(context);
+			}
 	    }
 		
+		protected void cleanup(Context context) throws IOException, InterruptedException {
+			if (!batch.isEmpty()) {
+				classify(context);
+			}
+			context.write(missesText, new LongWritable(misses));
+			context.write(hitsText, new LongWritable(hits));
+			super.cleanup(context);
+		}
+		
+		/**
+		 * Classifies the lines of the current batch and empties it. If a line
+		 * of a batch classified by many threads fails, the batch is classified
+		 * again line by line, so that only the failing lines are skipped.
+		 */
+		private void classify(Context context) {
+			if (pool != null) {
+				try {
+					BatchResult result = classifier.distributionForInstances(batch, pool);
+					misses += result.getMisses();
+					hits += result.getHits();
+					batch.clear();
+					context.progress();
+					return;
+				} catch (Exception e) {
+					System.out.println("MAP ERROR");
+					e.printStackTrace();
+				}
+			}
+			for (String[] instance : batch) {
+			    try 
+			    {
+			    	Result result = this.classifier.distributionForInstance(instance);
+			    	misses += result.getMisses();
+			    	hits += result.getHits();
+			    } catch (Exception e) {
+			    	System.out.println("MAP ERROR");
+			    	e.printStackTrace();
+			    }
+			}
+			batch.clear();
+			context.progress();
+		}
+		
 	 } 	
 	
 
         
-	 public static class Reduce extends Reducer<Text, IntWritable, Text, IntWritable> {
+	 public static class Reduce extends Reducer<Text, LongWritable, Text, LongWritable> {
 	
-		 public void reduce(Text key, Iterable<IntWritable> results, Context context) 
+		 public void reduce(Text key, Iterable<LongWritable> results, Context context) 
 				 throws IOException, InterruptedException {
-			 int 	value 		= 0;
+			 long 	value 		= 0;
 
-			 for (IntWritable result : results) {
+			 for (LongWritable result : results) {
 				 value +=  result.get();
 			 }
 			 System.out.println(value);
-			 context.write(key, new IntWritable(value));
+			 context.write(key, new LongWritable(value));
 	
 		 }
 	 }
         
-	public static void main(String[] args) throws Exception {
+	/**
+	 * Usage: Ladoop [--split-size BYTES] [--batch-size N] [--threads N]
+	 * test_path output_path training_file
+	 * 
+	 * Test files are split into chunks of at most the given size, the block
+	 * size by default, each classified by a map task. The model is copied to
+	 * the file system of the job and shipped to the nodes by the distributed
+	 * cache, which copies it once per node. With more than one
+	 * thread, task JVMs are reused by all the tasks of the job, so the model
+	 * and the caches warmed up by a task serve the next ones.
+	 */
+	public static void main(String[] arguments) throws Exception {
+		long splitSize = 0;
+		Configuration conf = new Configuration();
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i].equals("--split-size")) {
+				splitSize = Long.parseLong(arguments[++i]);
+			} else if (arguments[i].equals("--batch-size")) {
+				conf.setInt(BATCH_SIZE, Integer.parseInt(arguments[++i]));
+			} else if (arguments[i].equals("--threads")) {
+				conf.setInt(THREADS, Integer.parseInt(arguments[++i]));
+				conf.setInt("mapred.job.reuse.jvm.num.tasks", -1);
+			} else {
+				paths.add(arguments[i]);
+			}
+		}
+		String[] args = paths.toArray(new String[paths.size()]);
 
 		//Train lac
 	   	LAC classifier = new LAC(); 
-	    try {
-	    	
-	    	FileReader fr = new FileReader(args[2]);
-	    	BufferedReader buffer = new BufferedReader(fr);
-	    	classifier.buildClassifierFromLacStyle(buffer);
-	    	FileOutputStream fileOutput = new FileOutputStream("LacIndex.obj");
-	    	ObjectOutputStream objectOutput = new ObjectOutputStream(fileOutput);
-	    	objectOutput.writeObject(classifier);
-	    	objectOutput.close();     	
-	     	System.out.println("Lac Trained");
-	     	
-	    } catch (Exception e) { 
-	    	//do something
-	    	e.printStackTrace();
-	    	System.out.println("Cannot train lac");
-	    }	
-	    Process p = Runtime.getRuntime().exec("bash DistributedCache.sh -send /usr/local/hadoop/conf/slaves LacIndex.obj"); 
-	    p.waitFor();
+    	classifier.buildClassifierFromLacStyle(new FileInputStream(args[2]).getChannel());
+    	File localModel = File.createTempFile("LacIndex", ".model");
+    	localModel.deleteOnExit();
+    	FileOutputStream fileOutput = new FileOutputStream(localModel);
+    	try {
+    		classifier.saveModel(fileOutput);
+    	} finally {
+    		fileOutput.close();
+    	}
+     	System.out.println("Lac Trained");
 	    
+	    //Stage the model where every node can fetch it
+	    FileSystem fs = FileSystem.get(conf);
+	    Path staging = fs.makeQualified(new Path(fs.getHomeDirectory(), ".ladoop/model-" + System.currentTimeMillis()));
+	    Path model = new Path(staging, MODEL_NAME);
+	    fs.copyFromLocalFile(true, new Path(localModel.getAbsolutePath()), model);
 	    
-	    Configuration conf = new Configuration();
-	    
-		Job job = new Job(conf, "Ladoop");
-		
-		job.setJarByClass(Ladoop.class);
-		
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(IntWritable.class);
-		
-		job.setMapperClass(Map.class);
-		job.setReducerClass(Reduce.class);
-	        
-		job.setInputFormatClass(NonSplittableKeyValueTextInputFormat.class);
-		job.setOutputFormatClass(TextOutputFormat.class);
-	        
-		FileInputFormat.addInputPath(job, new Path(args[0]));
-		FileOutputFormat.setOutputPath(job, new Path(args[1]));
-	        
-		job.waitForCompletion(true);
-		
-	    p = Runtime.getRuntime().exec("bash DistributedCache.sh -clear /usr/local/hadoop/conf/slaves LacIndex.obj"); 
-	    p.waitFor();
+	    boolean succeeded;
+	    try {
+	    	DistributedCache.addCacheFile(new URI(model.toUri() + "#" + MODEL_NAME), conf);
+	    	DistributedCache.createSymlink(conf);
+	    	
+			Job job = new Job(conf, "Ladoop");
+			
+			job.setJarByClass(Ladoop.class);
+			
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(LongWritable.class);
+			
+			job.setMapperClass(Map.class);
+			job.setCombinerClass(Reduce.class);
+			job.setReducerClass(Reduce.class);
+		        
+			job.setInputFormatClass(TextInputFormat.class);
+			job.setOutputFormatClass(TextOutputFormat.class);
+		        
+			FileInputFormat.addInputPath(job, new Path(args[0]));
+			if (splitSize > 0) {
+				FileInputFormat.setMaxInputSplitSize(job, splitSize);
+			}
+			FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		        
+			succeeded = job.waitForCompletion(true);
+	    } finally {
+	    	fs.delete(staging, true);
+	    }
+	    if (!succeeded) {
+	    	System.exit(1);
+	    }
 	}
         
 }
\ No newline at end of file
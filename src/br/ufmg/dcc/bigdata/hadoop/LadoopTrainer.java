@@ -0,0 +1,454 @@
+package br.ufmg.dcc.bigdata.hadoop;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import weka.classifiers.rules.LAC;
+import weka.classifiers.rules.LACModelBuilder;
+
+/**
+ * Trains LAC with a MapReduce job, so that the training set does not have to
+ * be read and indexed by a single machine.
+ *
+ * Usage: LadoopTrainer [--reducers N] training_path model_file
+ *
+ * Mappers read splits of the training files and emit, for every line, its
+ * class and each of its features keyed by label, with the identifier of the
+ * line: the index of its file and its offset in the file. Reducers, each
+ * owning a shard of the labels, gather the sorted lines of each label. A
+ * final step on the driver numbers lines, classes and features in the order
+ * they appear in the files, and writes the binary model, which is the same
+ * as the one trained by reading the files sequentially.
+ *
+ * Labels are shared among reducers by hashing them, as Hadoop does by
+ * default, and not by ranges of feature numbers: a feature is numbered by
+ * its first appearance among all files, which is only known once the driver
+ * gathered the output of every reducer.
+ */
+public class LadoopTrainer {
+
+	/**
+	 * Configuration key telling whether features are told apart by their
+	 * positions, as detected in the first line of the training set.
+	 */
+	static final String POSITIONAL = "ladoop.train.positional";
+
+	/**
+	 * Prefix of the configuration keys holding the index of each training
+	 * file, by path.
+	 */
+	static final String FILE_INDEX = "ladoop.train.file.";
+
+	/**
+	 * Lines are identified by the index of their file, shifted by this many
+	 * bits, plus their offset in the file.
+	 */
+	private static final int OFFSET_BITS = 40;
+
+	/**
+	 * Orders training files by path, as the sequential training reads them.
+	 */
+	private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+		public int compare(Path a, Path b) {
+			return a.toString().compareTo(b.toString());
+		}
+	};
+
+	/**
+	 * An occurrence of a class or feature: the line it appears in, and its
+	 * position in the line.
+	 */
+	public static class Occurrence implements Writable {
+		long instance;
+		int position;
+
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVLong(out, instance);
+			WritableUtils.writeVInt(out, position);
+		}
+
+		public void readFields(DataInput in) throws IOException {
+			instance = WritableUtils.readVLong(in);
+			position = WritableUtils.readVInt(in);
+		}
+	}
+
+	/**
+	 * The sorted lines containing a class or feature, and its position in the
+	 * first of them.
+	 */
+	public static class Postings implements Writable {
+		int position;
+		long[] instances;
+
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVInt(out, position);
+			WritableUtils.writeVInt(out, instances.length);
+			long previous = 0;
+			for (long instance : instances) {
+				WritableUtils.writeVLong(out, instance - previous);
+				previous = instance;
+			}
+		}
+
+		public void readFields(DataInput in) throws IOException {
+			position = WritableUtils.readVInt(in);
+			instances = new long[WritableUtils.readVInt(in)];
+			long previous = 0;
+			for (int i = 0; i < instances.length; i++) {
+				previous += WritableUtils.readVLong(in);
+				instances[i] = previous;
+			}
+		}
+	}
+
+	/**
+	 * Returns the key of a class: classes are always the first token after
+	 * the identifier of a line.
+	 */
+	static String classKey(String label) {
+		return "c" + label;
+	}
+
+	/**
+	 * Returns the key of a feature, which holds its position when positions
+	 * tell features apart.
+	 */
+	static String featureKey(String label, int position, boolean positional) {
+		return positional ? "f" + position + " " + label : "f" + label;
+	}
+
+	public static class Map extends Mapper<LongWritable, Text, Text, Occurrence> {
+
+		private final Text label = new Text();
+		private final Occurrence occurrence = new Occurrence();
+		private boolean positional;
+		private long file;
+
+		protected void setup(Context context) throws IOException, InterruptedException {
+			super.setup(context);
+			Configuration conf = context.getConfiguration();
+			Path path = ((FileSplit) context.getInputSplit()).getPath();
+			int index = conf.getInt(FILE_INDEX + path.makeQualified(path.getFileSystem(conf)), -1);
+			if (index < 0) {
+				throw new IOException("Unknown training file: " + path);
+			}
+			configure(conf.getBoolean(POSITIONAL, false), index);
+		}
+
+		/**
+		 * Sets whether positions tell features apart, and the index of the
+		 * file being mapped.
+		 */
+		void configure(boolean positional, long file) {
+			this.positional = positional;
+			this.file = file;
+		}
+
+		/**
+		 * Emits the class and features of a line, tokenized and positioned as
+		 * {@link LAC#updateClassifier(List)} does.
+		 */
+		public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+			if (value.getLength() == 0) {
+				return;
+			}
+			String[] tokens = value.toString().split(" ");
+			if (tokens.length < 2) {
+				throw new IOException("Missing class at offset " + key.get());
+			}
+			occurrence.instance = (file << OFFSET_BITS) | key.get();
+			occurrence.position = 0;
+			label.set(classKey(tokens[1]));
+			emit(label, occurrence, context);
+
+			int position = 1;
+			for (int i = 2; i < tokens.length; i++, position++) {
+				if (tokens[i].trim().length() == 0 || tokens[i].equals("?")) {
+					continue;
+				}
+				occurrence.position = position;
+				label.set(featureKey(tokens[i], position, positional));
+				emit(label, occurrence, context);
+			}
+		}
+
+		/**
+		 * Writes an occurrence, which is reused for the next one.
+		 */
+		void emit(Text label, Occurrence occurrence, Context context) throws IOException, InterruptedException {
+			context.write(label, occurrence);
+		}
+	}
+
+	public static class Reduce extends Reducer<Text, Occurrence, Text, Postings> {
+
+		public void reduce(Text key, Iterable<Occurrence> occurrences, Context context)
+				throws IOException, InterruptedException {
+			context.write(key, collect(occurrences));
+		}
+	}
+
+	/**
+	 * Sorts the lines of the occurrences of a class or feature, keeping each
+	 * line once, and finds its first position.
+	 */
+	static Postings collect(Iterable<Occurrence> occurrences) {
+		long[] instances = new long[16];
+		int size = 0;
+		long first = Long.MAX_VALUE;
+		int position = 0;
+		for (Occurrence occurrence : occurrences) {
+			if (size == instances.length) {
+				instances = Arrays.copyOf(instances, size * 2);
+			}
+			instances[size++] = occurrence.instance;
+			if (occurrence.instance < first || (occurrence.instance == first && occurrence.position < position)) {
+				first = occurrence.instance;
+				position = occurrence.position;
+			}
+		}
+		Arrays.sort(instances, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || instances[i] != instances[distinct - 1]) {
+				instances[distinct++] = instances[i];
+			}
+		}
+
+		Postings postings = new Postings();
+		postings.position = position;
+		postings.instances = Arrays.copyOf(instances, distinct);
+		return postings;
+	}
+
+	/**
+	 * Gathers the output of the reducers and assembles the model.
+	 */
+	static class Assembler {
+
+		private static class Entry {
+			final String label;
+			final Postings postings;
+
+			Entry(String label, Postings postings) {
+				this.label = label;
+				this.postings = postings;
+			}
+		}
+
+		/**
+		 * Orders labels as they first appear: by line, then by position.
+		 */
+		private static final Comparator<Entry> FIRST_APPEARANCE = new Comparator<Entry>() {
+			public int compare(Entry one, Entry other) {
+				long oneFirst = one.postings.instances[0];
+				long otherFirst = other.postings.instances[0];
+				if (oneFirst != otherFirst) {
+					return oneFirst < otherFirst ? -1 : 1;
+				}
+				return one.postings.position - other.postings.position;
+			}
+		};
+
+		private final boolean positional;
+		private final List<Entry> classes = new ArrayList<Entry>();
+		private final List<Entry> features = new ArrayList<Entry>();
+
+		Assembler(boolean positional) {
+			this.positional = positional;
+		}
+
+		/**
+		 * Adds a record written by a reducer.
+		 */
+		void add(String key, Postings postings) {
+			if (key.charAt(0) == 'c') {
+				classes.add(new Entry(key.substring(1), postings));
+			} else if (positional) {
+				features.add(new Entry(key.substring(key.indexOf(' ') + 1), postings));
+			} else {
+				features.add(new Entry(key.substring(1), postings));
+			}
+		}
+
+		/**
+		 * Trains the given classifier with the added records. Lines are
+		 * numbered in order, and every line has a class, so the number of a
+		 * line is its rank among the lines of all classes.
+		 */
+		LAC build(LAC classifier) throws Exception {
+			int numInstances = 0;
+			for (Entry entry : classes) {
+				numInstances += entry.postings.instances.length;
+			}
+			long[] lines = new long[numInstances];
+			int size = 0;
+			for (Entry entry : classes) {
+				System.arraycopy(entry.postings.instances, 0, lines, size, entry.postings.instances.length);
+				size += entry.postings.instances.length;
+			}
+			Arrays.sort(lines);
+
+			Collections.sort(classes, FIRST_APPEARANCE);
+			Collections.sort(features, FIRST_APPEARANCE);
+			LACModelBuilder builder = new LACModelBuilder(numInstances, positional, classifier.isOffHeapFeatureIndex());
+			for (Entry entry : classes) {
+				builder.addClass(entry.label, entry.postings.position, number(entry.postings.instances, lines));
+			}
+			for (Entry entry : features) {
+				builder.addFeature(entry.label, entry.postings.position, number(entry.postings.instances, lines));
+				entry.postings.instances = null;
+			}
+			return builder.build(classifier);
+		}
+
+		private static int[] number(long[] instances, long[] lines) throws IOException {
+			int[] result = new int[instances.length];
+			for (int i = 0; i < instances.length; i++) {
+				result[i] = Arrays.binarySearch(lines, instances[i]);
+				if (result[i] < 0) {
+					throw new IOException("Line without a class: " + instances[i]);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Trains a classifier with the training files under the given path, with
+	 * a MapReduce job.
+	 * @param conf
+	 * @param input a training file, or a directory of training files, read in
+	 * order of name
+	 * @param reducers the number of shards of labels
+	 * @param classifier a classifier which is not built yet, whose settings
+	 * are used
+	 * @return the given classifier
+	 * @throws Exception
+	 */
+	public static LAC train(Configuration conf, Path input, int reducers, LAC classifier) throws Exception {
+		conf = new Configuration(conf);
+		FileSystem fs = input.getFileSystem(conf);
+		List<Path> files = new ArrayList<Path>();
+		for (FileStatus status : fs.listStatus(input)) {
+			String name = status.getPath().getName();
+			if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+				files.add(fs.makeQualified(status.getPath()));
+			}
+			if (status.getLen() >= 1L << OFFSET_BITS) {
+				throw new IOException("Training file too large: " + status.getPath());
+			}
+		}
+		if (files.isEmpty()) {
+			throw new IOException("The training set is empty");
+		}
+		Collections.sort(files, BY_NAME);
+		for (int i = 0; i < files.size(); i++) {
+			conf.setInt(FILE_INDEX + files.get(i), i);
+		}
+		BufferedReader firstFile = new BufferedReader(new InputStreamReader(fs.open(files.get(0)), "UTF-8"));
+		boolean positional;
+		try {
+			String line = firstFile.readLine();
+			while (line != null && line.length() == 0) {
+				line = firstFile.readLine();
+			}
+			positional = line != null && line.contains("w[");
+		} finally {
+			firstFile.close();
+		}
+		conf.setBoolean(POSITIONAL, positional);
+
+		Path output = fs.makeQualified(new Path(fs.getHomeDirectory(), ".ladoop/postings-" + System.currentTimeMillis()));
+		try {
+			Job job = new Job(conf, "Ladoop training");
+			job.setJarByClass(LadoopTrainer.class);
+			job.setMapperClass(Map.class);
+			job.setReducerClass(Reduce.class);
+			job.setNumReduceTasks(reducers);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(Occurrence.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Postings.class);
+			job.setInputFormatClass(TextInputFormat.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+			for (Path file : files) {
+				FileInputFormat.addInputPath(job, file);
+			}
+			FileOutputFormat.setOutputPath(job, output);
+			if (!job.waitForCompletion(true)) {
+				throw new IOException("Training job failed");
+			}
+
+			Assembler assembler = new Assembler(positional);
+			Text key = new Text();
+			for (FileStatus status : fs.listStatus(output)) {
+				if (!status.getPath().getName().startsWith("part-")) {
+					continue;
+				}
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath(), conf);
+				try {
+					Postings postings = new Postings();
+					while (reader.next(key, postings)) {
+						assembler.add(key.toString(), postings);
+						postings = new Postings();
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			return assembler.build(classifier);
+		} finally {
+			fs.delete(output, true);
+		}
+	}
+
+	public static void main(String[] arguments) throws Exception {
+		int reducers = 1;
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i].equals("--reducers")) {
+				reducers = Integer.parseInt(arguments[++i]);
+			} else {
+				paths.add(arguments[i]);
+			}
+		}
+
+		LAC classifier = train(new Configuration(), new Path(paths.get(0)), reducers, new LAC());
+		FileOutputStream model = new FileOutputStream(paths.get(1));
+		try {
+			classifier.saveModel(model);
+		} finally {
+			model.close();
+		}
+		System.out.println("Lac Trained");
+	}
+}
@@ -7,22 +7,72 @@ import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.hadoop.io.IntWritable;
 
+import br.ufmg.dcc.bigdata.BatchResult;
 import br.ufmg.dcc.bigdata.Result;
 
 
 import weka.classifiers.rules.LAC;
 
 
+/**
+ * Trains LAC on a local file and classifies another one.
+ * 
+ * Usage: LocalLAC [--threads N] [--off-heap-index] [--parallel-scoring F]
+ * training_file test_file
+ * 
+ * With more than one thread, the training file is loaded in parallel chunks,
+ * and test lines are classified in batches shared by all threads. With
+ * --off-heap-index, feature labels are kept outside the heap. With
+ * --parallel-scoring, test lines of at least F features are each scored by
+ * many threads.
+ */
 public class LocalLAC {
+	
+	/**
+	 * Number of test lines read and classified at a time when using threads.
+	 */
+	private static final int BATCH_SIZE = 10000;
+	
 	public static void main(String[] args) {
+		int threads = 1;
+		boolean offHeapFeatureIndex = false;
+		int parallelScoringThreshold = 0;
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--off-heap-index")) {
+				offHeapFeatureIndex = true;
+			} else if (args[i].equals("--parallel-scoring")) {
+				parallelScoringThreshold = Integer.parseInt(args[++i]);
+			} else {
+				files.add(args[i]);
+			}
+		}
+		
 		 //Train lac
-		int misses = 0;
-		int hits = 0;
+		long misses = 0;
+		long hits = 0;
 		try {
-			LAC classifier = new LAC(args[0]);
+			LAC classifier = new LAC();
+			classifier.setOffHeapFeatureIndex(offHeapFeatureIndex);
+			classifier.setParallelScoringThreshold(parallelScoringThreshold);
+			if (threads > 1) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					classifier.buildClassifierFromLacStyle(new FileInputStream(files.get(0)).getChannel(), pool);
+				} finally {
+					pool.shutdown();
+				}
+			} else {
+				classifier.buildClassifierFromLacStyle(new FileInputStream(files.get(0)).getChannel());
+			}
 			
 	    	/*FileReader fr = new FileReader("/home/alessandro/ufmg/baselac/dilma/dilma_00.lac");
 	    	BufferedReader buffer = new BufferedReader(fr);
@@ -37,16 +87,40 @@ public class LocalLAC {
   			obj.close();
 			*/
 			
-	    	FileInputStream fstream = new FileInputStream(args[1]);
+	    	FileInputStream fstream = new FileInputStream(files.get(1));
 	    	DataInputStream in = new DataInputStream(fstream);
 	    	BufferedReader br = new BufferedReader(new InputStreamReader(in));
 	    	String line;
-	    	while ((line = br.readLine()) != null) {
-	    		
-		    	Result result = classifier.distributionForInstance(line.split(" "));
-		    	misses += result.getMisses();
-		    	hits += result.getHits();
+	    	if (threads > 1) {
+	    		ForkJoinPool pool = new ForkJoinPool(threads);
+	    		List<String[]> batch = new ArrayList<String[]>(BATCH_SIZE);
+	    		try {
+	    			while ((line = br.readLine()) != null) {
+	    				batch.add(line.split(" "));
+	    				if (batch.size() == BATCH_SIZE) {
+	    					BatchResult result = classifier.distributionForInstances(batch, pool);
+	    					misses += result.getMisses();
+	    					hits += result.getHits();
+	    					batch.clear();
+	    				}
+	    			}
+	    			if (!batch.isEmpty()) {
+	    				BatchResult result = classifier.distributionForInstances(batch, pool);
+	    				misses += result.getMisses();
+	    				hits += result.getHits();
+	    			}
+	    		} finally {
+	    			pool.shutdown();
+	    		}
+	    	} else {
+	    		while ((line = br.readLine()) != null) {
+	    			
+	    			Result result = classifier.distributionForInstance(line.split(" "));
+	    			misses += result.getMisses();
+	    			hits += result.getHits();
+	    		}
 	    	}
+	    	br.close();
 
 	    	System.out.println(hits);
 	     	System.out.println(misses);
@@ -0,0 +1,164 @@
+package br.ufmg.dcc.bigdata.hadoop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import br.ufmg.dcc.bigdata.BatchResult;
+import br.ufmg.dcc.bigdata.Result;
+
+import weka.classifiers.rules.LAC;
+import weka.classifiers.rules.LACShardServer;
+
+/**
+ * Classifies a local file with a model whose instances containing each
+ * feature are split among processes on this machine, standing in for shard
+ * servers on other machines.
+ *
+ * Usage: LocalShardedLAC [--shards N] [--threads N] [--model] training_file
+ * test_file
+ *
+ * LAC is trained on the training file, or the binary model given with
+ * --model is used, and N processes each serve one shard of it with
+ * {@link LACShardServer}. Test lines are then classified by a classifier
+ * fetching from them, and the total cache hits and misses are printed, as
+ * {@link LocalLAC} does. The processes are stopped at the end.
+ */
+public class LocalShardedLAC {
+
+	/**
+	 * Number of test lines read and classified at a time when using threads.
+	 */
+	private static final int BATCH_SIZE = 10000;
+
+	public static void main(String[] args) throws Exception {
+		int shards = 2;
+		int threads = 1;
+		boolean model = false;
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--shards")) {
+				shards = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--model")) {
+				model = true;
+			} else {
+				files.add(args[i]);
+			}
+		}
+		if (files.size() != 2 || shards < 1) {
+			System.err.println("Usage: LocalShardedLAC [--shards N] [--threads N] [--model] training_file test_file");
+			System.exit(1);
+		}
+
+		File modelFile;
+		if (model) {
+			modelFile = new File(files.get(0));
+		} else {
+			modelFile = File.createTempFile("lac", ".model");
+			modelFile.deleteOnExit();
+			LAC trained = new LAC();
+			trained.buildClassifierFromLacStyle(new FileInputStream(files.get(0)).getChannel());
+			FileOutputStream out = new FileOutputStream(modelFile);
+			try {
+				trained.saveModel(out);
+			} finally {
+				out.close();
+			}
+		}
+
+		List<Process> processes = new ArrayList<Process>();
+		try {
+			List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+			for (int i = 0; i < shards; i++) {
+				processes.add(startShard(modelFile, i, shards));
+			}
+			for (Process process : processes) {
+				addresses.add(new InetSocketAddress("127.0.0.1", readPort(process)));
+			}
+
+			LAC classifier;
+			FileInputStream file = new FileInputStream(modelFile);
+			try {
+				classifier = LAC.mapModel(file.getChannel(), addresses);
+			} finally {
+				file.close();
+			}
+
+			long misses = 0;
+			long hits = 0;
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(files.get(1))));
+			try {
+				String line;
+				if (threads > 1) {
+					ForkJoinPool pool = new ForkJoinPool(threads);
+					List<String[]> batch = new ArrayList<String[]>(BATCH_SIZE);
+					try {
+						while ((line = br.readLine()) != null) {
+							batch.add(line.split(" "));
+							if (batch.size() == BATCH_SIZE) {
+								BatchResult result = classifier.distributionForInstances(batch, pool);
+								misses += result.getMisses();
+								hits += result.getHits();
+								batch.clear();
+							}
+						}
+						if (!batch.isEmpty()) {
+							BatchResult result = classifier.distributionForInstances(batch, pool);
+							misses += result.getMisses();
+							hits += result.getHits();
+						}
+					} finally {
+						pool.shutdown();
+					}
+				} else {
+					while ((line = br.readLine()) != null) {
+						Result result = classifier.distributionForInstance(line.split(" "));
+						misses += result.getMisses();
+						hits += result.getHits();
+					}
+				}
+			} finally {
+				br.close();
+			}
+
+			System.out.println(hits);
+			System.out.println(misses);
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Starts a process serving a shard, with the class path of this one.
+	 */
+	private static Process startShard(File model, int shard, int shards) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				LACShardServer.class.getName(), model.getPath(), Integer.toString(shard), Integer.toString(shards));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		return builder.start();
+	}
+
+	/**
+	 * Waits for a shard to be ready, and returns the port it listens on.
+	 */
+	private static int readPort(Process process) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line = in.readLine();
+		if (line == null) {
+			throw new IOException("A shard server failed to start");
+		}
+		return Integer.parseInt(line.trim());
+	}
+}
@@ -11,11 +11,25 @@
 package weka.classifiers.rules;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import br.ufmg.dcc.bigdata.BatchResult;
 import br.ufmg.dcc.bigdata.Result;
 
 /**
@@ -27,22 +41,35 @@ import br.ufmg.dcc.bigdata.Result;
 public class LAC implements Serializable {
 	private static final long serialVersionUID = 4740958383832856257L;
 
+	/**
+	 * Number of tasks per available processor a batch is split into, so
+	 * that workers which finish early can take over the remaining work.
+	 */
+	private static final int TASKS_PER_PROCESSOR = 4;
+
+	private static ForkJoinPool defaultPool;
+
 	private double minConfidence = 0;
 	private double minSupport = 0;
 	private int maxRuleSize = 4;
+	private LACFeatureOccurrences.Mode occurrenceMode = LACFeatureOccurrences.Mode.LISTS;
+	private int rulesCacheCapacity = LACRulesCache.DEFAULT_CAPACITY;
+	private int intersectionCacheCapacity = LACFeatureOccurrences.DEFAULT_CACHE_CAPACITY;
+	private boolean offHeapFeatureIndex = false;
+	private int windowSize = 0;
+	private long windowAge = 0;
+	private double decayRate = 0;
+	private int parallelScoringThreshold = 0;
 
 	private LACInstances trainingInstances;
 	private LACRules rules;
-	private Set<String> classes;
 
 	public LAC(){}
 	
 	public LAC(String filepath) {
 		try
 		{
-			FileReader fr = new FileReader(filepath);
-			BufferedReader buffer = new BufferedReader(fr);
-			this.buildClassifierFromLacStyle(buffer);
+			this.buildClassifierFromLacStyle(new FileInputStream(filepath).getChannel());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -57,31 +84,262 @@ public class LAC implements Serializable {
 	}
 	
 	public void buildClassifierFromLacStyle(BufferedReader data) throws Exception	{
-		classes = new HashSet<String>();
-		
 		String line = data.readLine();
-		String[] instance = line.split(" ");
 		boolean considerFeaturePositions = line.contains("w[");
-		this.trainingInstances = new LACInstances(considerFeaturePositions);
+		createTrainingInstances(considerFeaturePositions);
 		
-		LACInstance lacInstance = trainingInstances.createNewTrainingInstance();
-		populateInstance(instance, lacInstance, true);
-		
-		while(data.ready())	{
-			line = data.readLine();
-			instance = line.split(" ");
+		while(line != null)	{
 			LACInstance trainingInstance = trainingInstances.createNewTrainingInstance();
-			populateInstance(instance, trainingInstance, true);			
+			populateInstance(line.split(" "), trainingInstance, true);
+			line = data.readLine();
 		}
 		
 		data.close();
-		
+		prepare(considerFeaturePositions);
+	}
+
+	/**
+	 * Trains the classifier with instances in the LAC format, parsing the
+	 * bytes of the channel directly. This is faster than reading lines of
+	 * text, and should be preferred for large training sets. The channel is
+	 * closed at the end.
+	 * @param data
+	 * @throws Exception
+	 */
+	public void buildClassifierFromLacStyle(ReadableByteChannel data) throws Exception {
+		boolean considerFeaturePositions;
+		try {
+			LACTokenizer tokenizer = new LACTokenizer(data);
+			if (!tokenizer.nextLine()) {
+				throw new IOException("The training set is empty");
+			}
+			considerFeaturePositions = tokenizer.lineContains(LACParser.POSITIONAL_MARKER);
+			createTrainingInstances(considerFeaturePositions);
+			
+			LACParser parser = new LACParser(trainingInstances, considerFeaturePositions);
+			do {
+				parser.parseTrainingInstance(tokenizer);
+			} while (tokenizer.nextLine());
+		} finally {
+			data.close();
+		}
+		prepare(considerFeaturePositions);
+	}
+
+	/**
+	 * Trains the classifier with a file in the LAC format. The file is
+	 * memory mapped, split into chunks of lines, and the chunks are parsed
+	 * and indexed in parallel by the given executor. The model is the same
+	 * as the one built by reading the file sequentially. The channel is
+	 * closed at the end.
+	 * @param data
+	 * @param executor
+	 * @throws Exception the first exception thrown while loading a chunk
+	 */
+	public void buildClassifierFromLacStyle(FileChannel data, ExecutorService executor) throws Exception {
+		boolean considerFeaturePositions;
+		try {
+			LACChunkedLoader loader = new LACChunkedLoader(data,
+					Runtime.getRuntime().availableProcessors() * TASKS_PER_PROCESSOR);
+			considerFeaturePositions = loader.considerFeaturePosition();
+			createTrainingInstances(considerFeaturePositions);
+			loader.load(trainingInstances, executor);
+		} finally {
+			data.close();
+		}
+		prepare(considerFeaturePositions);
+	}
+
+	/**
+	 * Adds training instances in the LAC format to a built classifier,
+	 * without training it again. The instances containing each class and
+	 * feature are extended in place, and only cached rules and intersections
+	 * of combinations involving the features of the new instances are
+	 * dropped. Instances must not be classified during the update.
+	 * @param instances
+	 * @throws Exception
+	 */
+	public synchronized void updateClassifier(List<String[]> instances) throws Exception {
+		List<LACInstance> added = new ArrayList<LACInstance>(instances.size());
+		beginUpdate();
+		try {
+			for (String[] instance : instances) {
+				LACInstance trainingInstance = new LACInstance(trainingInstances);
+				populateInstance(instance, trainingInstance, true);
+				added.add(trainingInstance);
+			}
+			trainingInstances.update(added);
+		} finally {
+			trainingInstances.endUpdate();
+		}
+	}
+
+	/**
+	 * Adds training instances in the LAC format to a built classifier, as
+	 * {@link #updateClassifier(List)} does, parsing the bytes of the channel
+	 * directly. The channel is closed at the end.
+	 * @param data
+	 * @throws Exception
+	 */
+	public synchronized void updateClassifier(ReadableByteChannel data) throws Exception {
+		final List<LACInstance> added = new ArrayList<LACInstance>();
+		try {
+			beginUpdate();
+			try {
+				LACTokenizer tokenizer = new LACTokenizer(data);
+				LACParser parser = new LACParser(trainingInstances, trainingInstances.considerFeaturePosition()) {
+					@Override
+					LACInstance newInstance() {
+						LACInstance instance = new LACInstance(trainingInstances);
+						added.add(instance);
+						return instance;
+					}
+				};
+				while (tokenizer.nextLine()) {
+					parser.parseTrainingInstance(tokenizer);
+				}
+				trainingInstances.update(added);
+			} finally {
+				trainingInstances.endUpdate();
+			}
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Moves the time of a sliding window forward. Training instances added
+	 * at least the window age ago are expired, and instances added afterwards
+	 * are stamped with the given time. Time is in any unit, as long as the
+	 * window age and the decay rate use the same one.
+	 * @param time
+	 * @throws IllegalArgumentException if the given time is before the current one
+	 */
+	public synchronized void advanceTime(long time) {
+		if (rules == null) {
+			throw new IllegalStateException("The classifier is not built");
+		}
+		trainingInstances.advanceTime(time);
+	}
+
+	private void beginUpdate() {
+		if (rules == null) {
+			throw new IllegalStateException("The classifier is not built");
+		}
+		trainingInstances.beginUpdate();
+	}
+
+	/**
+	 * Writes the trained model in a compact binary format, which can be read
+	 * back by {@link #loadModel(InputStream)}. The stream is not closed.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void saveModel(OutputStream out) throws IOException {
+		if (rules == null) {
+			throw new IllegalStateException("The classifier is not built");
+		}
+		new LACModelWriter(Channels.newChannel(out)).write(this, trainingInstances);
+		out.flush();
+	}
+
+	/**
+	 * Reads a model written by {@link #saveModel(OutputStream)}. The stream
+	 * is not closed.
+	 * @param in
+	 * @return a classifier ready to classify instances
+	 * @throws Exception if the model is malformed or of an unsupported version
+	 */
+	public static LAC loadModel(InputStream in) throws Exception {
+		return new LACModelReader(Channels.newChannel(in)).read();
+	}
+
+	/**
+	 * Maps a model written by {@link #saveModel(OutputStream)} into memory,
+	 * from the current position of the file on. The feature dictionary and the
+	 * instances containing each feature are used straight from the file, so
+	 * processes mapping the same model share a single copy in the page cache.
+	 * Bitmaps, when the occurrence mode asks for them, are still built in the
+	 * heap. The file may be closed once this method returns.
+	 * @param file
+	 * @return a classifier ready to classify instances
+	 * @throws Exception if the model is malformed or of an unsupported version
+	 */
+	public static LAC mapModel(FileChannel file) throws Exception {
+		return new LACModelReader(file).read();
+	}
+
+	/**
+	 * Maps a model written by {@link #saveModel(OutputStream)} into memory, as
+	 * {@link #mapModel(FileChannel)} does, but leaves the instances containing
+	 * each feature to shards, each served by a {@link LACShardServer} started
+	 * with the same model, its index and the number of shards. The instances
+	 * containing the features of each test instance are fetched from the
+	 * shards before it is scored, and the most recently used ones are kept.
+	 * The classifier cannot be updated. The file may be closed once this
+	 * method returns.
+	 * @param file
+	 * @param shards where the server of each shard listens, in order
+	 * @return a classifier ready to classify instances
+	 * @throws Exception if the model is malformed or of an unsupported version
+	 */
+	public static LAC mapModel(FileChannel file, List<InetSocketAddress> shards) throws Exception {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("No shards");
+		}
+		LACRemoteShard[] remote = new LACRemoteShard[shards.size()];
+		for (int i = 0; i < remote.length; i++) {
+			remote[i] = new LACRemoteShard(shards.get(i));
+		}
+		return new LACModelReader(file).read(remote);
+	}
+
+	/**
+	 * Uses a training set restored from a model.
+	 * @param instances
+	 * @param considerFeaturePositions
+	 * @throws Exception
+	 */
+	void restore(LACInstances instances, boolean considerFeaturePositions) throws Exception {
+		useTrainingInstances(instances);
+		prepare(considerFeaturePositions);
+	}
+
+	private void createTrainingInstances(boolean considerFeaturePositions) {
+		LACInstances instances = new LACInstances(considerFeaturePositions);
+		if (offHeapFeatureIndex) {
+			instances.setFeatureIndex(new LACOffHeapFeatureIndex(considerFeaturePositions));
+		}
+		if (isWindowed()) {
+			instances.setWindow(new LACWindow(windowSize, windowAge, decayRate));
+		}
+		useTrainingInstances(instances);
+	}
+
+	private void useTrainingInstances(LACInstances instances) {
+		this.trainingInstances = instances;
+		// instances are expired from lists only
+		this.trainingInstances.setOccurrenceMode(isWindowed() ? LACFeatureOccurrences.Mode.LISTS : occurrenceMode);
+		this.trainingInstances.setIntersectionCacheCapacity(intersectionCacheCapacity);
+	}
+
+	private void prepare(boolean considerFeaturePositions) throws Exception {
 		this.rules = this.trainingInstances.prepare(maxRuleSize - 1, minSupport, minConfidence, 
 				considerFeaturePositions, false);
+		this.rules.setCacheCapacity(rulesCacheCapacity);
+		this.rules.setParallelThreshold(parallelScoringThreshold);
 	}
 
+	/**
+	 * Classifies an instance in the LAC format. The model is not changed, so
+	 * many threads may classify instances at the same time; cache hits and
+	 * misses are reported for this call only.
+	 * @param instance
+	 * @return the probability of each class
+	 * @throws Exception
+	 */
 	public Result distributionForInstance(String[] instance) throws Exception {
-		LACInstance testInstance = new LACInstance(trainingInstances);
+		LACInstance testInstance = trainingInstances.createNewTestInstance();
 		populateInstance(instance, testInstance, false);
 		double[] probs;
 		String[] labels;
@@ -89,11 +347,12 @@ public class LAC implements Serializable {
 		int cacheMisses;
 		///try
 		//{
-			labels = new String[classes.size()];
-			probs = rules.calculateProbabilities(testInstance);
+			LACCacheStatistics statistics = new LACCacheStatistics();
+			probs = rules.calculateProbabilities(testInstance, statistics);
+			labels = new String[probs.length];
 			
-			cacheHits = rules.getCacheHits();
-			cacheMisses = rules.getCacheMisses();
+			cacheHits = statistics.getHits();
+			cacheMisses = statistics.getMisses();
 		
 			for (int i = 0; i < probs.length; i++) 	{
 				String value = trainingInstances.getClassByIndex(i).getLabel();
@@ -111,6 +370,83 @@ public class LAC implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Classifies a batch of instances in the LAC format, using all available
+	 * processors.
+	 * @param instances
+	 * @return the result of each instance, in the given order
+	 * @throws Exception
+	 */
+	public BatchResult distributionForInstances(List<String[]> instances) throws Exception {
+		return distributionForInstances(instances, getDefaultPool());
+	}
+
+	/**
+	 * Classifies a batch of instances in the LAC format. The batch is split
+	 * into contiguous ranges which are classified by the given executor.
+	 * Results keep the order of the instances, and the cache hits and misses
+	 * of all of them are summed up.
+	 * @param instances
+	 * @param executor
+	 * @return the result of each instance, in the given order
+	 * @throws Exception the first exception thrown while classifying
+	 */
+	public BatchResult distributionForInstances(final List<String[]> instances, ExecutorService executor) throws Exception {
+		final Result[] results = new Result[instances.size()];
+		int numTasks = Runtime.getRuntime().availableProcessors() * TASKS_PER_PROCESSOR;
+		int rangeSize = Math.max(1, (results.length + numTasks - 1) / numTasks);
+		
+		List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+		for (int start = 0; start < results.length; start += rangeSize) {
+			final int from = start;
+			final int to = Math.min(results.length, start + rangeSize);
+			futures.add(executor.submit(new Callable<long[]>() {
+				public long[] call() throws Exception {
+					long misses = 0;
+					long hits = 0;
+					for (int i = from; i < to; i++) {
+						results[i] = distributionForInstance(instances.get(i));
+						misses += results[i].getMisses();
+						hits += results[i].getHits();
+					}
+					return new long[] { misses, hits };
+				}
+			}));
+		}
+		
+		long misses = 0;
+		long hits = 0;
+		try {
+			for (Future<long[]> future : futures) {
+				long[] statistics = future.get();
+				misses += statistics[0];
+				hits += statistics[1];
+			}
+		} catch (ExecutionException e) {
+			for (Future<long[]> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		
+		return new BatchResult(misses, hits, Arrays.asList(results));
+	}
+
+	/**
+	 * Returns the pool used by batches classified without an executor, and by
+	 * instances scored in parallel outside of a pool. It is created on first
+	 * use and shared by all classifiers.
+	 */
+	static synchronized ForkJoinPool getDefaultPool() {
+		if (defaultPool == null) {
+			defaultPool = new ForkJoinPool();
+		}
+		return defaultPool;
+	}
+
 	/**
 	 * Populates a {@link LACInstance} with the contents of an Weka {@link Instance}
 	 * @param wekaInstance
@@ -120,8 +456,6 @@ public class LAC implements Serializable {
 	private void populateInstance(String[] instance, LACInstance lacInstance, boolean populateClass) {
 		String clazz = instance[1];
 		
-		classes.add(clazz);
-		
 		if(populateClass){
 			lacInstance.setClass(clazz);
 		}else{
@@ -144,4 +478,141 @@ public class LAC implements Serializable {
 	public int getMaxRuleSize() {
 		return maxRuleSize;
 	}
-}
\ No newline at end of file
+
+	public LACFeatureOccurrences.Mode getOccurrenceMode() {
+		return occurrenceMode;
+	}
+
+	/**
+	 * Sets how the training instances containing each feature are stored:
+	 * as sorted lists, as bitmaps, or chosen per feature according to its
+	 * density. It must be called before the classifier is built.
+	 * @param occurrenceMode
+	 */
+	public void setOccurrenceMode(LACFeatureOccurrences.Mode occurrenceMode) {
+		this.occurrenceMode = occurrenceMode;
+	}
+
+	public int getRulesCacheCapacity() {
+		return rulesCacheCapacity;
+	}
+
+	/**
+	 * Sets how many combinations of features have their rules cached. If the
+	 * classifier is already built, its rules cache is emptied.
+	 * @param rulesCacheCapacity
+	 */
+	public void setRulesCacheCapacity(int rulesCacheCapacity) {
+		this.rulesCacheCapacity = rulesCacheCapacity;
+		if (rules != null) {
+			rules.setCacheCapacity(rulesCacheCapacity);
+		}
+	}
+
+	public int getIntersectionCacheCapacity() {
+		return intersectionCacheCapacity;
+	}
+
+	/**
+	 * Sets how many intersections of training instances are cached. If the
+	 * classifier is already built, its intersection cache is emptied.
+	 * @param intersectionCacheCapacity
+	 */
+	public void setIntersectionCacheCapacity(int intersectionCacheCapacity) {
+		this.intersectionCacheCapacity = intersectionCacheCapacity;
+		if (trainingInstances != null) {
+			trainingInstances.setIntersectionCacheCapacity(intersectionCacheCapacity);
+		}
+	}
+
+	public boolean isOffHeapFeatureIndex() {
+		return offHeapFeatureIndex;
+	}
+
+	/**
+	 * Sets whether the labels of features are kept outside the heap, in a
+	 * compact dictionary meant for vocabularies of millions of features. It
+	 * must be called before the classifier is built.
+	 * @param offHeapFeatureIndex
+	 */
+	public void setOffHeapFeatureIndex(boolean offHeapFeatureIndex) {
+		this.offHeapFeatureIndex = offHeapFeatureIndex;
+	}
+
+	public int getParallelScoringThreshold() {
+		return parallelScoringThreshold;
+	}
+
+	/**
+	 * Sets the number of features from which an instance is scored by many
+	 * threads, the combinations starting with each of its features being
+	 * explored by a task of their own. This lowers the latency of classifying
+	 * large documents; smaller instances are scored serially, as the tasks
+	 * would cost more than they save. Scores may differ from serial ones by
+	 * rounding, as they are summed up in a different order.
+	 * @param parallelScoringThreshold the number of features, or 0 to always
+	 * score serially
+	 */
+	public void setParallelScoringThreshold(int parallelScoringThreshold) {
+		this.parallelScoringThreshold = parallelScoringThreshold;
+		if (rules != null) {
+			rules.setParallelThreshold(parallelScoringThreshold);
+		}
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * Makes the training set slide over the instances added by
+	 * {@link #updateClassifier(List)}, keeping only the given number of most
+	 * recent ones. Instances are stored as lists, whatever the occurrence
+	 * mode. It must be called before the classifier is built.
+	 * @param windowSize the number of instances, or 0 for no limit
+	 */
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public long getWindowAge() {
+		return windowAge;
+	}
+
+	/**
+	 * Makes the training set slide over time, as set by
+	 * {@link #advanceTime(long)}, keeping only the instances added less than
+	 * the given time ago. It must be called before the classifier is built.
+	 * @param windowAge the age at which instances expire, or 0 for no limit
+	 */
+	public void setWindowAge(long windowAge) {
+		this.windowAge = windowAge;
+	}
+
+	public double getDecayRate() {
+		return decayRate;
+	}
+
+	/**
+	 * Weighs training instances by their age: an instance added at time
+	 * <code>t</code> weighs <code>exp(-rate * (now - t))</code> in the support
+	 * and confidence of rules. It must be called before the classifier is
+	 * built.
+	 * @param decayRate the decay per time unit, or 0 for equal weights
+	 */
+	public void setDecayRate(double decayRate) {
+		this.decayRate = decayRate;
+	}
+
+	private boolean isWindowed() {
+		return windowSize > 0 || windowAge > 0 || decayRate > 0;
+	}
+
+	LACInstances getTrainingInstances() {
+		return trainingInstances;
+	}
+
+	LACRules getRules() {
+		return rules;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+
+/**
+ * A set of {@link LACInstance} indexes stored as a bitmap, one bit per
+ * training instance. Intersections are computed a word at a time and sizes are
+ * obtained with population counts, which makes this representation the
+ * cheapest one for features present in a large share of the training set.
+ */
+public class LACBitmap extends LACInstanceSet
+{
+	private static final long serialVersionUID = -4506301497546950683L;
+
+	private long[] words;
+	private int size;
+
+	/**
+	 * Constructs an empty bitmap able to hold instances in the range
+	 * <code>[0, numInstances)</code>.
+	 *
+	 * @param numInstances
+	 */
+	LACBitmap(int numInstances)
+	{
+		this.words = new long[(numInstances + 63) >>> 6];
+	}
+
+	private LACBitmap(long[] words, int size)
+	{
+		this.words = words;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a bitmap containing the same instances of the given list.
+	 *
+	 * @param list
+	 * @param numInstances
+	 */
+	static LACBitmap fromPostingList(LACPostingList list, int numInstances)
+	{
+		LACBitmap bitmap = new LACBitmap(numInstances);
+		int listSize = list.size();
+		for (int i = 0; i < listSize; i++)
+		{
+			bitmap.add(list.get(i));
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Makes the bitmap able to hold instances in the range
+	 * <code>[0, numInstances)</code>.
+	 *
+	 * @param numInstances
+	 */
+	void ensureCapacity(int numInstances)
+	{
+		int length = (numInstances + 63) >>> 6;
+		if (length > words.length)
+		{
+			words = Arrays.copyOf(words, Math.max(length, words.length * 2));
+		}
+	}
+
+	/**
+	 * Adds an instance to the bitmap.
+	 *
+	 * @param instance
+	 */
+	void add(int instance)
+	{
+		long mask = 1L << instance;
+		int word = instance >>> 6;
+		if ((words[word] & mask) == 0)
+		{
+			words[word] |= mask;
+			size++;
+		}
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	boolean contains(int instance)
+	{
+		int word = instance >>> 6;
+		return word < words.length && (words[word] & (1L << instance)) != 0;
+	}
+
+	/**
+	 * Returns a new bitmap containing the instances present in both bitmaps.
+	 *
+	 * @param other
+	 */
+	LACBitmap and(LACBitmap other)
+	{
+		int length = Math.min(words.length, other.words.length);
+		long[] result = new long[length];
+		int resultSize = 0;
+		for (int i = 0; i < length; i++)
+		{
+			long word = words[i] & other.words[i];
+			result[i] = word;
+			resultSize += Long.bitCount(word);
+		}
+		return new LACBitmap(result, resultSize);
+	}
+
+	/**
+	 * Returns the number of instances present in both bitmaps, without
+	 * materializing the intersection.
+	 *
+	 * @param other
+	 */
+	int andCardinality(LACBitmap other)
+	{
+		int length = Math.min(words.length, other.words.length);
+		int result = 0;
+		for (int i = 0; i < length; i++)
+		{
+			result += Long.bitCount(words[i] & other.words[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the instances of this bitmap as a sorted {@link LACPostingList}.
+	 */
+	LACPostingList toPostingList()
+	{
+		int[] instances = new int[size];
+		int position = 0;
+		for (int i = 0; i < words.length; i++)
+		{
+			long word = words[i];
+			while (word != 0)
+			{
+				instances[position++] = (i << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return new LACPostingList(instances, size);
+	}
+
+	@Override
+	void countClasses(LACClassOccurrences classes, int[] count)
+	{
+		for (int i = 0; i < count.length; i++)
+		{
+			LACBitmap instancesOfClass = classes.getBitmapOfClass(i);
+			if (instancesOfClass != null)
+			{
+				count[i] = andCardinality(instancesOfClass);
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return toPostingList().toString();
+	}
+}
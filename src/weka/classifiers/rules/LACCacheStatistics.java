@@ -1,41 +1,53 @@
-/*
- * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
- * the License. You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
- * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
- * specific language governing permissions and limitations under the License.
- */
-package weka.classifiers.rules;
-
-import java.util.LinkedHashMap;
-
-/**
- * A Last-Recently-Used cache implementation
- * 
- * @author Adriano Veloso (algorithm and original C++ implementation)
- * @author Gesse Dafe (Java implementation)
- */
-public class LACLRU<K, V> extends LinkedHashMap<K, V>
-{
-	private static final long serialVersionUID = -8788545308834303897L;
-
-	private final int capacity;
-
-	/**
-	 * @param capacity
-	 */
-	public LACLRU(int capacity)
-	{
-		super(capacity, 1.1f, true);
-		this.capacity = capacity;
-	}
-
-	@Override
-	protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest)
-	{
-		return size() > capacity;
-	}
-}
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+/**
+ * Counts the hits and misses of the rules cache while a single instance is
+ * classified. Each classification gets its own object, so concurrent
+ * classifications do not share counters.
+ */
+class LACCacheStatistics
+{
+	private int hits;
+	private int misses;
+
+	void hit()
+	{
+		hits++;
+	}
+
+	void miss()
+	{
+		misses++;
+	}
+
+	/**
+	 * Adds the hits and misses counted by another object.
+	 * 
+	 * @param other
+	 */
+	void add(LACCacheStatistics other)
+	{
+		hits += other.hits;
+		misses += other.misses;
+	}
+
+	int getHits()
+	{
+		return hits;
+	}
+
+	int getMisses()
+	{
+		return misses;
+	}
+}
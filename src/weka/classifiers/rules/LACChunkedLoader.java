@@ -0,0 +1,376 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a training file in the LAC format in parallel. The file is memory
+ * mapped and split at line boundaries into chunks. Each chunk is parsed with
+ * its own dictionaries of classes and features and its own lists of the
+ * instances containing each feature. The chunks are then merged in order:
+ * their classes and features are indexed, their instances are remapped to
+ * those indexes, and their lists are concatenated. <br/>
+ * Since labels are indexed in the order they first appear in the file, the
+ * training set is the same as the one loaded by a single {@link LACParser}.
+ */
+final class LACChunkedLoader
+{
+	/**
+	 * Chunks are not made smaller than this many bytes.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Chunks are made smaller than this many bytes, which a single mapping
+	 * can hold even when a line ends far beyond the chunk boundary.
+	 */
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long[] boundaries;
+	private final boolean considerFeaturePosition;
+
+	/**
+	 * Splits a file into chunks.
+	 *
+	 * @param channel
+	 * @param numChunks
+	 *            how many chunks the file should be split into. Small files
+	 *            are split into fewer chunks, very large ones into more.
+	 * @throws IOException
+	 *             if the file is empty
+	 */
+	LACChunkedLoader(FileChannel channel, int numChunks) throws IOException
+	{
+		this.channel = channel;
+		long size = channel.size();
+		numChunks = (int) Math.min(numChunks, size / MIN_CHUNK_SIZE);
+		numChunks = (int) Math.max(numChunks, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+		numChunks = Math.max(1, numChunks);
+
+		long[] starts = new long[numChunks + 1];
+		int count = 1;
+		for (int i = 1; i < numChunks; i++)
+		{
+			long start = nextLine(i * (size / numChunks));
+			if (start > starts[count - 1] && start < size)
+			{
+				starts[count++] = start;
+			}
+		}
+		starts[count++] = size;
+		this.boundaries = Arrays.copyOf(starts, count);
+
+		LACTokenizer tokenizer = new LACTokenizer(map(0));
+		if (!tokenizer.nextLine())
+		{
+			throw new IOException("The training set is empty");
+		}
+		this.considerFeaturePosition = tokenizer.lineContains(LACParser.POSITIONAL_MARKER);
+	}
+
+	/**
+	 * Returns the offset of the first line starting at or after the given
+	 * one.
+	 */
+	private long nextLine(long offset) throws IOException
+	{
+		if (offset == 0)
+		{
+			return 0;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long position = offset - 1;
+		while (true)
+		{
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				return channel.size();
+			}
+			for (int i = 0; i < read; i++)
+			{
+				if (buffer.get(i) == '\n')
+				{
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+
+	private ByteBuffer map(int chunk) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, boundaries[chunk], boundaries[chunk + 1] - boundaries[chunk]);
+	}
+
+	/**
+	 * @return true if the features of the file are told apart by their
+	 *         positions
+	 */
+	boolean considerFeaturePosition()
+	{
+		return considerFeaturePosition;
+	}
+
+	/**
+	 * Loads all chunks into a training set.
+	 *
+	 * @param instances
+	 *            an empty training set
+	 * @param executor
+	 *            runs the parsing and merging of chunks
+	 * @throws Exception
+	 *             the first exception thrown while loading a chunk
+	 */
+	void load(LACInstances instances, ExecutorService executor) throws Exception
+	{
+		final Chunk[] chunks = new Chunk[boundaries.length - 1];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < chunks.length; i++)
+		{
+			final Chunk chunk = new Chunk(instances, considerFeaturePosition, map(i));
+			chunks[i] = chunk;
+			tasks.add(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					chunk.parse();
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+
+		// labels are indexed in order, as a sequential load would do
+		int numInstances = 0;
+		int numFeatures = 0;
+		for (Chunk chunk : chunks)
+		{
+			chunk.offset = numInstances;
+			numInstances += chunk.created.size();
+			chunk.classMap = new int[chunk.localClasses.size()];
+			for (int i = 0; i < chunk.classMap.length; i++)
+			{
+				chunk.classMap[i] = instances.registerClass(chunk.localClasses.get(i));
+			}
+			chunk.featureMap = new int[chunk.localFeatures.size()];
+			for (int i = 0; i < chunk.featureMap.length; i++)
+			{
+				chunk.featureMap[i] = instances.registerFeature(chunk.localFeatures.get(i));
+				numFeatures = Math.max(numFeatures, chunk.featureMap[i] + 1);
+			}
+		}
+
+		// each chunk starts writing the list of a feature where the lists of
+		// the previous chunks end
+		int[] sizes = new int[numFeatures];
+		for (Chunk chunk : chunks)
+		{
+			chunk.starts = new int[chunk.featureMap.length];
+			for (int i = 0; i < chunk.featureMap.length; i++)
+			{
+				int feature = chunk.featureMap[i];
+				chunk.starts[i] = sizes[feature];
+				sizes[feature] += chunk.postings[i].size();
+			}
+		}
+		final int[][] lists = new int[numFeatures][];
+		for (int i = 0; i < numFeatures; i++)
+		{
+			lists[i] = new int[sizes[i]];
+		}
+
+		tasks.clear();
+		for (final Chunk chunk : chunks)
+		{
+			tasks.add(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					chunk.merge(lists);
+					return null;
+				}
+			});
+		}
+		run(tasks, executor);
+
+		LACPostingList[] postings = new LACPostingList[numFeatures];
+		for (int i = 0; i < numFeatures; i++)
+		{
+			postings[i] = new LACPostingList(lists[i], lists[i].length);
+		}
+		for (Chunk chunk : chunks)
+		{
+			instances.addTrainingInstances(chunk.created);
+		}
+		instances.setFeaturePostings(postings);
+	}
+
+	/**
+	 * Runs tasks and waits for all of them to finish.
+	 *
+	 * @throws Exception
+	 *             the first exception thrown by a task
+	 */
+	private static void run(List<Callable<Void>> tasks, ExecutorService executor) throws Exception
+	{
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (Callable<Void> task : tasks)
+		{
+			futures.add(executor.submit(task));
+		}
+		try
+		{
+			for (Future<Void> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (ExecutionException e)
+		{
+			for (Future<Void> future : futures)
+			{
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof Exception)
+			{
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * A chunk of the file, parsed with local indexes of classes and features.
+	 */
+	private static final class Chunk extends LACParser
+	{
+		private final ByteBuffer data;
+
+		final List<LACInstance> created = new ArrayList<LACInstance>();
+		final List<LACClass> localClasses = new ArrayList<LACClass>();
+		final List<LACFeature> localFeatures = new ArrayList<LACFeature>();
+		private final Map<LACClass, Integer> classIds = new HashMap<LACClass, Integer>();
+		private final Map<LACFeature, Integer> featureIds = new HashMap<LACFeature, Integer>();
+		LACPostingList[] postings = new LACPostingList[64];
+
+		int offset;
+		int[] classMap;
+		int[] featureMap;
+		int[] starts;
+
+		Chunk(LACInstances instances, boolean considerFeaturePosition, ByteBuffer data)
+		{
+			super(instances, considerFeaturePosition);
+			this.data = data;
+		}
+
+		/**
+		 * Parses all lines of the chunk, gathering the local positions of
+		 * the instances containing each local feature.
+		 */
+		void parse() throws IOException
+		{
+			LACTokenizer tokenizer = new LACTokenizer(data);
+			while (tokenizer.nextLine())
+			{
+				LACInstance instance = parseTrainingInstance(tokenizer);
+				int position = created.size() - 1;
+				int[] indexedFeatures = instance.getIndexedFeatures();
+				for (int i = 0; i < instance.getNumFeatures(); i++)
+				{
+					postings[indexedFeatures[i]].add(position);
+				}
+			}
+			postings = Arrays.copyOf(postings, localFeatures.size());
+		}
+
+		/**
+		 * Remaps the instances of the chunk to the global indexes and copies
+		 * its lists, shifted by the position of its first instance, into the
+		 * global ones.
+		 *
+		 * @param lists
+		 */
+		void merge(int[][] lists)
+		{
+			for (LACInstance instance : created)
+			{
+				instance.remap(featureMap, classMap);
+			}
+			for (int i = 0; i < postings.length; i++)
+			{
+				int[] list = lists[featureMap[i]];
+				int start = starts[i];
+				LACPostingList posting = postings[i];
+				for (int j = 0; j < posting.size(); j++)
+				{
+					list[start + j] = posting.get(j) + offset;
+				}
+			}
+		}
+
+		@Override
+		LACInstance newInstance()
+		{
+			LACInstance instance = new LACInstance(instances);
+			created.add(instance);
+			return instance;
+		}
+
+		@Override
+		int registerClass(String label, int position)
+		{
+			LACClass clazz = new LACClass(label, position, considerFeaturePosition);
+			Integer index = classIds.get(clazz);
+			if (index == null)
+			{
+				index = localClasses.size();
+				localClasses.add(clazz);
+				classIds.put(clazz, index);
+			}
+			return index;
+		}
+
+		@Override
+		int registerFeature(String label, int position)
+		{
+			LACFeature feature = new LACFeature(label, position, considerFeaturePosition);
+			Integer index = featureIds.get(feature);
+			if (index == null)
+			{
+				index = localFeatures.size();
+				localFeatures.add(feature);
+				featureIds.put(feature, index);
+				if (index == postings.length)
+				{
+					postings = Arrays.copyOf(postings, index * 2);
+				}
+				postings[index] = new LACPostingList(4);
+			}
+			return index;
+		}
+	}
+}
@@ -45,6 +45,17 @@ public class LACClassIndex implements Serializable
 		return indexed.keySet();
 	}
 
+	/**
+	 * Returns the index of the given class, or -1 if it was never indexed.
+	 * 
+	 * @param clazz
+	 */
+	int lookup(LACClass clazz)
+	{
+		Integer index = indexed.reverseGet(clazz);
+		return index != null ? index : -1;
+	}
+
 	/**
 	 * Indexes the given class
 	 * 
@@ -10,19 +10,18 @@
  */
 package weka.classifiers.rules;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * A simple way to store and lookup instances that belong to a given class.
  * For each class on training set, we store an entry on a
- * {@link Map}. <br/>
- * This entry is a set of integers. Each integer is the index of an {@link LACInstance}
- * that belongs to that class.
+ * table indexed by the class itself. <br/>
+ * This entry is a {@link LACPostingList}. Each integer is the index of an {@link LACInstance}
+ * that belongs to that class. The class of each instance is kept as well, and,
+ * when bitmaps are in use, each class also gets a {@link LACBitmap}.
  * 
  * @author Gesse Dafe (Java implementation)
  * @author Adriano Veloso (algorithm and original C++ implementation)
@@ -31,7 +30,13 @@ public class LACClassOccurrences implements Serializable
 {
 	private static final long serialVersionUID = 4471128505943485021L;
 
-	private Map<Integer, List<Integer>> map = new HashMap<Integer, List<Integer>>();
+	private LACPostingList[] postings = new LACPostingList[0];
+	private LACBitmap[] bitmaps;
+	private int[] classOfInstance = new int[0];
+	/** All ones, or the capacity of the ring minus one once in rings. */
+	private int mask = -1;
+	private int firstInstance;
+	private int numInstances;
 	
 	/**
 	 * Creates the map of classes for all entries in {@link LACInstances}.
@@ -40,32 +45,245 @@ public class LACClassOccurrences implements Serializable
 	 */
 	void createMap(LACInstances instances)
 	{
+		int[] classes = new int[instances.length()];
 		for (int currentPosition = 0; currentPosition < instances.length(); currentPosition++)
 		{
-			LACInstance currentInstance = instances.getInstance(currentPosition);
-			Integer clazz = currentInstance.getIndexedClass();
+			classes[currentPosition] = instances.getInstance(currentPosition).getIndexedClass();
+		}
+		createMap(classes);
+	}
+
+	/**
+	 * Creates the map of classes from the class of each instance.
+	 * 
+	 * @param classOfInstance
+	 *            the index of the class of each instance, or -1 for instances
+	 *            without a class
+	 */
+	void createMap(int[] classOfInstance)
+	{
+		this.classOfInstance = classOfInstance;
+		this.numInstances = classOfInstance.length;
+		for (int currentPosition = 0; currentPosition < classOfInstance.length; currentPosition++)
+		{
+			int clazz = classOfInstance[currentPosition];
 			if(clazz >= 0)
 			{
-				List<Integer> instancesByClass = map.get(clazz);
-				if (instancesByClass == null)
+				instancesOfClass(clazz).add(currentPosition);
+			}
+		}
+
+		for (int i = 0; i < postings.length; i++)
+		{
+			if (postings[i] != null)
+			{
+				postings[i].trim();
+			}
+		}
+	}
+	
+	/**
+	 * Adds instances to the map, after the ones it already holds.
+	 * 
+	 * @param classes
+	 *            the index of the class of each new instance, or -1 for
+	 *            instances without a class
+	 */
+	void append(int[] classes)
+	{
+		int first = firstInstance + numInstances;
+		ensureCapacity(numInstances + classes.length);
+		numInstances += classes.length;
+		for (int i = 0; i < classes.length; i++)
+		{
+			int clazz = classes[i];
+			classOfInstance[(first + i) & mask] = clazz;
+			if (clazz >= 0)
+			{
+				instancesOfClass(clazz).add(first + i);
+				if (bitmaps != null)
 				{
-					instancesByClass = new ArrayList<Integer>();
-					map.put(clazz, instancesByClass);
+					if (clazz >= bitmaps.length)
+					{
+						bitmaps = Arrays.copyOf(bitmaps, clazz + 1);
+					}
+					if (bitmaps[clazz] == null)
+					{
+						bitmaps[clazz] = new LACBitmap(numInstances);
+					}
+					bitmaps[clazz].ensureCapacity(numInstances);
+					bitmaps[clazz].add(first + i);
 				}
-				instancesByClass.add(currentPosition);
 			}
 		}
 	}
-	
+
+	/**
+	 * Makes room for the given number of instances.
+	 */
+	private void ensureCapacity(int count)
+	{
+		if (mask == -1)
+		{
+			if (firstInstance + count > classOfInstance.length)
+			{
+				classOfInstance = Arrays.copyOf(classOfInstance, Math.max(firstInstance + count, classOfInstance.length * 2));
+			}
+		}
+		else if (count > classOfInstance.length)
+		{
+			int[] ring = new int[LACRingPostingList.capacityFor(count)];
+			for (int instance = firstInstance; instance < firstInstance + numInstances; instance++)
+			{
+				ring[instance & (ring.length - 1)] = classOfInstance[instance & mask];
+			}
+			classOfInstance = ring;
+			mask = ring.length - 1;
+		}
+	}
+
+	/**
+	 * Keeps the map in ring buffers from now on, so that its oldest instances
+	 * can be expired by {@link #expireFirst()}. Bitmaps are dropped.
+	 */
+	void useRings()
+	{
+		int[] ring = new int[LACRingPostingList.capacityFor(Math.max(16, numInstances))];
+		for (int instance = firstInstance; instance < firstInstance + numInstances; instance++)
+		{
+			ring[instance & (ring.length - 1)] = classOfInstance[instance & mask];
+		}
+		classOfInstance = ring;
+		mask = ring.length - 1;
+		for (int i = 0; i < postings.length; i++)
+		{
+			if (postings[i] != null)
+			{
+				postings[i] = new LACRingPostingList(postings[i]);
+			}
+		}
+		bitmaps = null;
+	}
+
+	/**
+	 * Removes the oldest instance of the map, which must be kept in ring
+	 * buffers.
+	 */
+	void expireFirst()
+	{
+		int clazz = getClassOfInstance(firstInstance);
+		if (clazz >= 0)
+		{
+			((LACRingPostingList) postings[clazz]).removeFirst(firstInstance);
+		}
+		firstInstance++;
+		numInstances--;
+	}
+
+	/**
+	 * Renumbers the instances of a map kept in ring buffers, subtracting the
+	 * given number from each.
+	 * 
+	 * @param delta
+	 *            at most the oldest instance of the map
+	 */
+	void renumber(int delta)
+	{
+		int[] ring = new int[classOfInstance.length];
+		for (int instance = firstInstance; instance < firstInstance + numInstances; instance++)
+		{
+			ring[(instance - delta) & mask] = classOfInstance[instance & mask];
+		}
+		classOfInstance = ring;
+		firstInstance -= delta;
+		for (int i = 0; i < postings.length; i++)
+		{
+			if (postings[i] != null)
+			{
+				((LACRingPostingList) postings[i]).renumber(delta);
+			}
+		}
+	}
+
+	/**
+	 * Returns the list of instances of a class, creating it if needed.
+	 */
+	private LACPostingList instancesOfClass(int clazz)
+	{
+		if (clazz >= postings.length)
+		{
+			postings = Arrays.copyOf(postings, clazz + 1);
+		}
+		LACPostingList instancesByClass = postings[clazz];
+		if (instancesByClass == null)
+		{
+			instancesByClass = mask == -1 ? new LACPostingList(16) : new LACRingPostingList();
+			postings[clazz] = instancesByClass;
+		}
+		return instancesByClass;
+	}
+
+	/**
+	 * Creates a {@link LACBitmap} for each class, so that the number of
+	 * instances of a class within a bitmap can be obtained by a single
+	 * intersection.
+	 */
+	void createBitmaps()
+	{
+		bitmaps = new LACBitmap[postings.length];
+		for (int i = 0; i < postings.length; i++)
+		{
+			if (postings[i] != null)
+			{
+				bitmaps[i] = LACBitmap.fromPostingList(postings[i], numInstances);
+			}
+		}
+	}
+
+	/**
+	 * Returns the class of the given instance, or -1 if it has no class.
+	 * 
+	 * @param instance
+	 */
+	int getClassOfInstance(int instance)
+	{
+		return classOfInstance[instance & mask];
+	}
+
+	/**
+	 * Returns the bitmap of the instances that belong to a given class, or
+	 * null if bitmaps were not created.
+	 * 
+	 * @param classIndex
+	 */
+	LACBitmap getBitmapOfClass(int classIndex)
+	{
+		if (bitmaps == null || classIndex >= bitmaps.length)
+		{
+			return null;
+		}
+		return bitmaps[classIndex];
+	}
+
 	/**
 	 * Returns the instances that belong to a given class
 	 * @param classIndex
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
-	List<Integer> getInstancesOfClass(int classIndex)
+	LACPostingList getInstancesOfClass(int classIndex)
+	{
+		LACPostingList result = classIndex < postings.length ? postings[classIndex] : null;
+		return result != null ? result : LACPostingList.EMPTY;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
 	{
-		List<Integer> result = map.get(classIndex);
-		return result != null ? result : Collections.EMPTY_LIST;
+		in.defaultReadObject();
+		// maps serialized before rings existed have no mask, and rings are
+		// never smaller than 16 instances
+		if (mask == 0)
+		{
+			mask = -1;
+		}
 	}
 }
@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache that may be shared by many threads. Keys are spread over
+ * independent segments, each evicting entries with the CLOCK policy: reading
+ * an entry only sets its reference bit, without locks or reordering, and a
+ * segment is locked only to insert. When a segment is full, the clock hand
+ * evicts the first entry which was not referenced since the hand last passed
+ * over it. <br/>
+ * Cached entries are not serialized; a deserialized cache starts empty.
+ */
+public class LACConcurrentCache<K, V> implements Serializable
+{
+	private static final long serialVersionUID = -2189519941862155542L;
+
+	private final int capacity;
+	private transient Segment<K, V>[] segments;
+
+	/**
+	 * @param capacity
+	 *            maximum number of entries. A cache with no capacity stores
+	 *            nothing.
+	 */
+	public LACConcurrentCache(int capacity)
+	{
+		this.capacity = capacity;
+		createSegments();
+	}
+
+	private void createSegments()
+	{
+		int numSegments = 1;
+		int maxSegments = Math.min(capacity, Runtime.getRuntime().availableProcessors() * 4);
+		while (numSegments * 2 <= maxSegments)
+		{
+			numSegments *= 2;
+		}
+
+		@SuppressWarnings("unchecked")
+		Segment<K, V>[] created = (Segment<K, V>[]) new Segment<?, ?>[numSegments];
+		segments = created;
+		int segmentCapacity = (capacity + numSegments - 1) / numSegments;
+		for (int i = 0; i < numSegments; i++)
+		{
+			segments[i] = new Segment<K, V>(segmentCapacity);
+		}
+	}
+
+	private Segment<K, V> segmentFor(Object key)
+	{
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (segments.length - 1)];
+	}
+
+	/**
+	 * Returns the value stored for the given key, or null if there is none.
+	 *
+	 * @param key
+	 */
+	public V get(Object key)
+	{
+		return segmentFor(key).get(key);
+	}
+
+	/**
+	 * Stores a value for the given key, possibly evicting another entry. If
+	 * the key is already present, the stored value is kept.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value)
+	{
+		segmentFor(key).put(key, value, false);
+	}
+
+	/**
+	 * Stores a value for the given key, replacing the stored one if the key is
+	 * already present.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void replace(K key, V value)
+	{
+		segmentFor(key).put(key, value, true);
+	}
+
+	/**
+	 * Removes the entries whose keys are accepted by the given filter.
+	 *
+	 * @param filter
+	 * @return the number of entries removed
+	 */
+	public int removeIf(Filter<? super K> filter)
+	{
+		int removed = 0;
+		for (Segment<K, V> segment : segments)
+		{
+			removed += segment.removeIf(filter);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return the maximum number of entries
+	 */
+	public int capacity()
+	{
+		return capacity;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		createSegments();
+	}
+
+	/**
+	 * Selects entries of a cache by their keys.
+	 */
+	public interface Filter<K>
+	{
+		/**
+		 * @param key
+		 * @return true if the entry of the given key is selected
+		 */
+		boolean accept(K key);
+	}
+
+	/**
+	 * An entry and its reference bit.
+	 */
+	private static final class Entry<K, V>
+	{
+		final K key;
+		volatile V value;
+		volatile boolean referenced;
+
+		Entry(K key, V value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A part of the cache, with its own entries and clock.
+	 */
+	private static final class Segment<K, V>
+	{
+		private final ConcurrentHashMap<Object, Entry<K, V>> map;
+		private final Entry<K, V>[] clock;
+		private int size;
+		private int hand;
+
+		Segment(int capacity)
+		{
+			map = new ConcurrentHashMap<Object, Entry<K, V>>(Math.max(16, capacity * 4 / 3 + 1));
+			@SuppressWarnings("unchecked")
+			Entry<K, V>[] created = (Entry<K, V>[]) new Entry<?, ?>[capacity];
+			clock = created;
+		}
+
+		V get(Object key)
+		{
+			Entry<K, V> entry = map.get(key);
+			if (entry == null)
+			{
+				return null;
+			}
+			if (!entry.referenced)
+			{
+				entry.referenced = true;
+			}
+			return entry.value;
+		}
+
+		synchronized void put(K key, V value, boolean replace)
+		{
+			if (clock.length == 0)
+			{
+				return;
+			}
+			Entry<K, V> present = map.get(key);
+			if (present != null)
+			{
+				if (replace)
+				{
+					present.value = value;
+				}
+				return;
+			}
+
+			Entry<K, V> entry = new Entry<K, V>(key, value);
+			if (size < clock.length)
+			{
+				clock[size++] = entry;
+			}
+			else
+			{
+				while (clock[hand].referenced)
+				{
+					clock[hand].referenced = false;
+					hand = (hand + 1) % clock.length;
+				}
+				map.remove(clock[hand].key);
+				clock[hand] = entry;
+				hand = (hand + 1) % clock.length;
+			}
+			map.put(key, entry);
+		}
+
+		synchronized int removeIf(Filter<? super K> filter)
+		{
+			int kept = 0;
+			for (int i = 0; i < size; i++)
+			{
+				Entry<K, V> entry = clock[i];
+				if (filter.accept(entry.key))
+				{
+					map.remove(entry.key);
+				}
+				else
+				{
+					clock[kept++] = entry;
+				}
+			}
+			int removed = size - kept;
+			for (int i = kept; i < size; i++)
+			{
+				clock[i] = null;
+			}
+			size = kept;
+			if (hand >= size)
+			{
+				hand = 0;
+			}
+			return removed;
+		}
+	}
+}
@@ -70,6 +70,14 @@ public class LACFeature implements Serializable
 		return label;
 	}
 
+	/**
+	 * @return the position of the feature in its instance
+	 */
+	int getPosition()
+	{
+		return position;
+	}
+
 	@Override
 	public String toString()
 	{
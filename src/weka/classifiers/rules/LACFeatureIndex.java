@@ -40,6 +40,19 @@ public class LACFeatureIndex implements Serializable
 		return index;
 	}
 
+	/**
+	 * Returns the index of the given feature, or -1 if it was never indexed.
+	 * The index is not changed, so it is safe to call it from many threads
+	 * once the training set is loaded.
+	 * 
+	 * @param feature
+	 */
+	int lookup(LACFeature feature)
+	{
+		Integer index = indexed.get(feature);
+		return index != null ? index : -1;
+	}
+
 	/**
 	 * Returns a feature by its index
 	 * 
@@ -50,6 +63,14 @@ public class LACFeatureIndex implements Serializable
 		return indexed.reverseGet(indexedFeature);
 	}
 
+	/**
+	 * @return the number of indexed features
+	 */
+	int size()
+	{
+		return indexed.size();
+	}
+
 	@Override
 	public String toString()
 	{
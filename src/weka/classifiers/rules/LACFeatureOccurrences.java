@@ -10,19 +10,22 @@
  */
 package weka.classifiers.rules;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A simple way to store and lookup instances that have a given combination of
  * features. For each feature on training set, we store an entry on a
- * {@link Map}. <br/>
- * This entry is a set of integers. Each integer is the index of an {@link LACInstance}
- * that contains those features.
+ * table indexed by the feature itself. <br/>
+ * This entry is a {@link LACInstanceSet}. Each element is the index of an {@link LACInstance}
+ * that contains those features. Depending on the {@link Mode}, sets are stored
+ * as sorted {@link LACPostingList}s, as {@link LACBitmap}s, or as whichever of
+ * the two suits the density of each feature. Once created, the map is only
+ * read, and the cache of intersections may be shared by many threads, until
+ * instances are appended to it.
  * 
  * @author Gesse Dafe (Java implementation)
  * @author Adriano Veloso (algorithm and original C++ implementation)
@@ -31,8 +34,66 @@ public class LACFeatureOccurrences implements Serializable
 {
 	private static final long serialVersionUID = -3942414672290094335L;
 
-	private Map<Integer, List<Integer>> map = new HashMap<Integer, List<Integer>>();
-	private final LACLRU<List<Integer>, List<Integer>> cache = new LACLRU<List<Integer>, List<Integer>>(10000);
+	/**
+	 * How the instances containing each feature are stored.
+	 */
+	public enum Mode
+	{
+		/** Every feature is stored as a sorted list. */
+		LISTS,
+		/** Every feature is stored as a bitmap. */
+		BITMAPS,
+		/** Dense features are stored as bitmaps, sparse ones as sorted lists. */
+		ADAPTIVE
+	}
+
+	/**
+	 * In {@link Mode#ADAPTIVE}, a set is stored as a bitmap when at least one
+	 * in this many training instances belongs to it, i.e., when the bitmap
+	 * takes no more memory than the equivalent list of ints.
+	 */
+	private static final int BITMAP_DENSITY = 32;
+
+	/**
+	 * Number of intersections cached when no capacity is given.
+	 */
+	static final int DEFAULT_CACHE_CAPACITY = 10000;
+
+	private LACInstanceSet[] postings = new LACInstanceSet[0];
+	private LACConcurrentCache<LACPatternKey, LACInstanceSet> cache = new LACConcurrentCache<LACPatternKey, LACInstanceSet>(DEFAULT_CACHE_CAPACITY);
+	private Mode mode = Mode.LISTS;
+	private int numInstances;
+	private boolean windowed;
+
+	/**
+	 * Sets how the instances containing each feature are stored. It must be
+	 * called before {@link #createMap(LACInstances)}.
+	 * 
+	 * @param mode
+	 */
+	void setMode(Mode mode)
+	{
+		this.mode = mode;
+	}
+
+	/**
+	 * Replaces the cache of intersections by an empty one with the given
+	 * capacity.
+	 * 
+	 * @param capacity
+	 */
+	void setCacheCapacity(int capacity)
+	{
+		this.cache = new LACConcurrentCache<LACPatternKey, LACInstanceSet>(capacity);
+	}
+
+	/**
+	 * @return how the instances containing each feature are stored
+	 */
+	Mode getMode()
+	{
+		return mode;
+	}
 
 	/**
 	 * Creates the map of features for all entries in {@link LACInstances}.
@@ -41,150 +102,381 @@ public class LACFeatureOccurrences implements Serializable
 	 */
 	void createMap(LACInstances instances)
 	{
+		LACPostingList[] lists = new LACPostingList[0];
 		for (int currentPosition = 0; currentPosition < instances.length(); currentPosition++)
 		{
 			LACInstance currentInstance = instances.getInstance(currentPosition);
-			List<Integer> indexedFeatures = currentInstance.getIndexedFeatures();
-			int size = indexedFeatures.size();
+			int[] indexedFeatures = currentInstance.getIndexedFeatures();
+			int size = currentInstance.getNumFeatures();
 			for (int currentFeaturePosition = 0; currentFeaturePosition < size; currentFeaturePosition++)
 			{
-				int currentIndexedFeature = indexedFeatures.get(currentFeaturePosition);
-				List<Integer> instancesContainingFeature = map.get(currentIndexedFeature);
+				int currentIndexedFeature = indexedFeatures[currentFeaturePosition];
+				if (currentIndexedFeature >= lists.length)
+				{
+					lists = Arrays.copyOf(lists, Math.max(currentIndexedFeature + 1, lists.length * 2));
+				}
+				LACPostingList instancesContainingFeature = lists[currentIndexedFeature];
 				if (instancesContainingFeature == null)
 				{
-					instancesContainingFeature = new ArrayList<Integer>();
-					map.put(currentIndexedFeature, instancesContainingFeature);
+					instancesContainingFeature = new LACPostingList(4);
+					lists[currentIndexedFeature] = instancesContainingFeature;
 				}
 				instancesContainingFeature.add(currentPosition);
 			}
 		}
-	}
 
-	@Override
-	public String toString()
-	{
-		return map.toString();
+		createMap(lists, instances.length());
 	}
 
 	/**
-	 * Gets all instances which contain all given features
+	 * Creates the map of features from the instances containing each of them.
 	 * 
-	 * @param featuresIndexes
-	 * @return
+	 * @param lists
+	 *            the sorted positions of the instances containing each feature,
+	 *            by index of feature
+	 * @param numInstances
+	 *            the number of training instances
 	 */
-	public List<Integer> instancesWithFeatures(List<Integer> featuresIndexes)
+	void createMap(LACPostingList[] lists, int numInstances)
 	{
-		List<Integer> instances = cache.get(featuresIndexes);
-
-		if (instances == null)
+		this.numInstances = numInstances;
+		postings = new LACInstanceSet[lists.length];
+		for (int i = 0; i < lists.length; i++)
 		{
-			if (featuresIndexes.size() == 1)
+			if (lists[i] != null)
 			{
-				instances = map.get(featuresIndexes.get(0));
+				lists[i].trim();
+				postings[i] = choose(lists[i]);
 			}
-			else
-			{
-				instances = new ArrayList<Integer>();
+		}
+	}
 
-				Integer feature = featuresIndexes.get(0);
-				List<Integer> instancesForCurrFeat = map.get(feature);
+	/**
+	 * Returns true if instances may be added to the map by
+	 * {@link #append(List, int)}.
+	 */
+	boolean isUpdatable()
+	{
+		return true;
+	}
 
-				if (instancesForCurrFeat == null || instancesForCurrFeat.size() == 0)
+	/**
+	 * Adds instances to the map, after the ones it already holds. The sets of
+	 * the features of the new instances are extended in place, and the
+	 * cached intersections involving any of those features must be dropped
+	 * by {@link #invalidate(BitSet)}; all other cached intersections remain
+	 * valid.
+	 * 
+	 * @param added
+	 *            the new instances, in order
+	 * @param first
+	 *            the position of the first new instance
+	 * @return the features of the new instances
+	 */
+	BitSet append(List<LACInstance> added, int first)
+	{
+		this.numInstances += added.size();
+		BitSet touched = new BitSet();
+		for (int i = 0; i < added.size(); i++)
+		{
+			LACInstance instance = added.get(i);
+			int[] indexedFeatures = instance.getIndexedFeatures();
+			for (int j = 0; j < instance.getNumFeatures(); j++)
+			{
+				int feature = indexedFeatures[j];
+				if (!touched.get(feature))
+				{
+					touched.set(feature);
+					if (feature >= postings.length)
+					{
+						postings = Arrays.copyOf(postings, Math.max(feature + 1, postings.length * 2));
+					}
+					postings[feature] = modifiable(postings[feature]);
+				}
+				LACInstanceSet set = postings[feature];
+				if (set instanceof LACBitmap)
 				{
-					return Collections.emptyList();
+					((LACBitmap) set).add(first + i);
 				}
 				else
 				{
-					List<Integer> otherfeatures = new ArrayList<Integer>();
-					otherfeatures.addAll(featuresIndexes);
-					otherfeatures.remove(0);
-
-					instances.addAll(instancesForCurrFeat);
-					List<Integer> rest = instancesWithFeatures(otherfeatures);
-					if(rest != null)
-					{
-						instances = calculateIntersection(instances, rest);
-						cache.put(featuresIndexes, instances);
-					}
-					else
-					{
-						List<Integer> empty = Collections.emptyList();
-						cache.put(featuresIndexes, empty);
-					}
+					((LACPostingList) set).add(first + i);
 				}
 			}
 		}
 
-		return instances;
+		// the density of the extended sets changed
+		for (int feature = touched.nextSetBit(0); feature >= 0; feature = touched.nextSetBit(feature + 1))
+		{
+			LACInstanceSet set = postings[feature];
+			postings[feature] = set instanceof LACBitmap ? choose((LACBitmap) set) : choose((LACPostingList) set);
+		}
+		return touched;
 	}
 
 	/**
-	 * Calculates the intersection one two lists sorted in ascending order. Both
-	 * lists must not have duplicated elements.
-	 * 
-	 * @param oneList
-	 * @param otherList
+	 * Keeps every set in a ring buffer from now on, so that the oldest
+	 * instances of the map can be expired by
+	 * {@link #expire(int, int[], BitSet)}. Bitmaps are converted to lists.
 	 */
-	private List<Integer> calculateIntersection(List<Integer> oneList, List<Integer> otherList)
+	void useRings()
 	{
-		List<Integer> intersection = new ArrayList<Integer>();
-
-		int oneIndex = 0;
-		int oneSize = oneList.size();
-
-		int otherIndex = 0;
-		int otherSize = otherList.size();
-
-		while (oneIndex < oneSize && otherIndex < otherSize)
+		for (int i = 0; i < postings.length; i++)
 		{
-			int oneElem = oneList.get(oneIndex);
-			int otherElem = otherList.get(otherIndex);
-
-			if (oneElem == otherElem)
+			LACInstanceSet set = postings[i];
+			if (set instanceof LACBitmap)
 			{
-				intersection.add(oneElem);
-				oneIndex++;
-				otherIndex++;
+				set = ((LACBitmap) set).toPostingList();
 			}
-			else if (oneElem < otherElem)
+			if (set != null)
 			{
-				oneIndex = linearSearch(otherElem, oneIndex, oneSize - 1, oneList);
+				postings[i] = new LACRingPostingList((LACPostingList) set);
 			}
-			else
+		}
+		mode = Mode.LISTS;
+		windowed = true;
+	}
+
+	/**
+	 * Removes the oldest instance of the map from the sets of its features,
+	 * each of which it starts.
+	 * 
+	 * @param instance
+	 *            the oldest instance of the map
+	 * @param features
+	 *            its features
+	 * @param touched
+	 *            where the features are marked
+	 */
+	void expire(int instance, int[] features, BitSet touched)
+	{
+		for (int feature : features)
+		{
+			LACRingPostingList set = (LACRingPostingList) postings[feature];
+			if (set != null)
 			{
-				otherIndex = linearSearch(oneElem, otherIndex, otherSize - 1, otherList);
+				set.removeFirst(instance);
+				if (set.size() == 0)
+				{
+					postings[feature] = null;
+				}
 			}
+			touched.set(feature);
 		}
+		numInstances--;
+	}
 
-		return intersection;
+	/**
+	 * Renumbers the instances of a map kept in ring buffers, subtracting the
+	 * given number from each. Cached intersections, which hold the former
+	 * numbers, are all dropped.
+	 * 
+	 * @param delta
+	 *            at most the oldest instance of the map
+	 */
+	void renumber(int delta)
+	{
+		for (int i = 0; i < postings.length; i++)
+		{
+			if (postings[i] != null)
+			{
+				((LACRingPostingList) postings[i]).renumber(delta);
+			}
+		}
+		cache = new LACConcurrentCache<LACPatternKey, LACInstanceSet>(cache.capacity());
 	}
 
 	/**
-	 * Executes a linear search for the given element on the list
+	 * Drops the cached intersections involving any of the given features.
+	 * 
+	 * @param touched
+	 */
+	void invalidate(BitSet touched)
+	{
+		cache.removeIf(LACPatternKey.containingAny(touched));
+	}
+
+	/**
+	 * Returns a set with the same instances as the given one, which can hold
+	 * all instances of the map and be added to.
+	 * 
+	 * @param set
+	 *            a set of the map, or null
+	 */
+	private LACInstanceSet modifiable(LACInstanceSet set)
+	{
+		if (windowed)
+		{
+			return set == null ? new LACRingPostingList() : set instanceof LACRingPostingList ? set
+					: new LACRingPostingList((LACPostingList) set);
+		}
+		if (set == null)
+		{
+			return new LACPostingList(4);
+		}
+		if (set instanceof LACMappedPostingList)
+		{
+			return ((LACMappedPostingList) set).copy();
+		}
+		if (set instanceof LACBitmap)
+		{
+			((LACBitmap) set).ensureCapacity(numInstances);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns true if a set of the given size must be stored as a bitmap.
+	 * 
+	 * @param size
+	 */
+	private boolean useBitmap(int size)
+	{
+		switch (mode)
+		{
+			case BITMAPS:
+				return true;
+			case ADAPTIVE:
+				return (long) size * BITMAP_DENSITY >= numInstances;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Converts a list to the representation required by the current
+	 * {@link Mode}.
 	 * 
-	 * @param elem
-	 * @param start
-	 * @param end
 	 * @param list
-	 * @return the index of the element if it exists. Otherwise, returns the
-	 *         index of the first greater element.
 	 */
-	private int linearSearch(int elem, int start, int end, List<Integer> list)
+	private LACInstanceSet choose(LACPostingList list)
+	{
+		return useBitmap(list.size()) ? LACBitmap.fromPostingList(list, numInstances) : list;
+	}
+
+	/**
+	 * Converts a bitmap to the representation required by the current
+	 * {@link Mode}.
+	 * 
+	 * @param bitmap
+	 */
+	private LACInstanceSet choose(LACBitmap bitmap)
+	{
+		return useBitmap(bitmap.size()) ? bitmap : bitmap.toPostingList();
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(postings);
+	}
+
+	/**
+	 * Makes sure that the instances containing the given features can be
+	 * got without waiting, before a test instance containing them is scored.
+	 * They always can when they are held in the heap.
+	 * 
+	 * @param features
+	 * @param count
+	 *            the number of features
+	 * @throws IOException
+	 *             if they cannot be fetched
+	 */
+	void prefetch(int[] features, int count) throws IOException
 	{
-		int last = list.get(end);
+	}
 
-		if (elem > last)
+	/**
+	 * Gets all instances which contain the given feature
+	 * 
+	 * @param featureIndex
+	 * @return
+	 */
+	LACInstanceSet instancesWithFeature(int featureIndex)
+	{
+		LACInstanceSet instances = null;
+		if (featureIndex >= 0 && featureIndex < postings.length)
 		{
-			return end + 1;
+			instances = postings[featureIndex];
 		}
-		else
+		return instances != null ? instances : LACPostingList.EMPTY;
+	}
+
+	/**
+	 * Gets all instances which contain all given features. When the instances
+	 * containing all but the last feature are cached, only the last feature
+	 * must be intersected. Otherwise, the sets of all features are intersected
+	 * from the smallest one up.
+	 * 
+	 * @param featuresIndexes a key which does not change, as it may be cached
+	 * @return
+	 */
+	LACInstanceSet instancesWithFeatures(LACPatternKey featuresIndexes)
+	{
+		return instancesWithFeatures(featuresIndexes, 0);
+	}
+
+	/**
+	 * Gets all instances which contain all given features, as
+	 * {@link #instancesWithFeatures(LACPatternKey)} does, unless fewer than
+	 * <code>minCount</code> instances may contain them. This is known without
+	 * intersecting anything when one of the sets to be intersected is
+	 * smaller.
+	 * 
+	 * @param featuresIndexes a key which does not change, as it may be cached
+	 * @param minCount
+	 * @return the instances, or null if there are fewer than
+	 *         <code>minCount</code>
+	 */
+	LACInstanceSet instancesWithFeatures(LACPatternKey featuresIndexes, int minCount)
+	{
+		int numFeatures = featuresIndexes.length();
+		if (numFeatures == 1)
 		{
-			int size = list.size();
-			while (start < size && list.get(start) < elem)
+			LACInstanceSet instances = instancesWithFeature(featuresIndexes.get(0));
+			return instances.size() >= minCount ? instances : null;
+		}
+
+		LACInstanceSet instances = cache.get(featuresIndexes);
+
+		if (instances == null)
+		{
+			LACInstanceSet[] sets;
+			LACInstanceSet prefix = null;
+			if (numFeatures > 2)
 			{
-				start++;
+				prefix = cache.get(featuresIndexes.prefix(numFeatures - 1));
 			}
-			return start;
+
+			if (prefix != null)
+			{
+				sets = new LACInstanceSet[] { prefix, instancesWithFeature(featuresIndexes.get(numFeatures - 1)) };
+			}
+			else
+			{
+				sets = new LACInstanceSet[numFeatures];
+				for (int i = 0; i < numFeatures; i++)
+				{
+					sets[i] = instancesWithFeature(featuresIndexes.get(i));
+				}
+			}
+
+			for (LACInstanceSet set : sets)
+			{
+				if (set.size() < minCount)
+				{
+					return null;
+				}
+			}
+
+			instances = LACIntersection.intersectAll(sets);
+			if (instances instanceof LACBitmap)
+			{
+				instances = choose((LACBitmap) instances);
+			}
+			cache.put(featuresIndexes, instances);
 		}
+
+		return instances.size() >= minCount ? instances : null;
 	}
 }
@@ -11,8 +11,7 @@
 package weka.classifiers.rules;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Implements a training or test instance
@@ -27,7 +26,9 @@ public class LACInstance implements Serializable
 	private static final String UNKNOWN_ATTRIBUTE = "?";
 
 	private final LACInstances instances;
-	private List<Integer> featuresBitmap = new ArrayList<Integer>(100);
+	private final boolean lookupOnly;
+	private int[] featuresBitmap = new int[16];
+	private int numFeatures;
 	private int currentFeaturePosition;
 	private int indexedClass = -1;
 	private int indexedHiddenClass;
@@ -36,13 +37,28 @@ public class LACInstance implements Serializable
 	 * Creates a new {@link LACInstance} object.
 	 */
 	public LACInstance(LACInstances instances)
+	{
+		this(instances, false);
+	}
+
+	/**
+	 * Creates a new {@link LACInstance} object.
+	 * 
+	 * @param instances
+	 * @param lookupOnly
+	 *            if true, features and classes are only looked up in the
+	 *            indexes of <code>instances</code>, never added to them
+	 */
+	LACInstance(LACInstances instances, boolean lookupOnly)
 	{
 		this.instances = instances;
+		this.lookupOnly = lookupOnly;
 	}
 
 	/**
 	 * Adds a feature to the new {@link LACInstance} being constructed. The given
-	 * feature is indexed as an unique integer.
+	 * feature is indexed as an unique integer. Unknown features of lookup-only
+	 * instances are ignored.
 	 * 
 	 * @param label
 	 */
@@ -54,19 +70,60 @@ public class LACInstance implements Serializable
 		}
 		else
 		{
-			int index = instances.registerFeature(label, currentFeaturePosition++);
-			featuresBitmap.add(index);
+			int position = currentFeaturePosition;
+			addIndexedFeature(lookupOnly ? instances.lookupFeature(label, position) : instances.registerFeature(label, position));
+		}
+	}
+
+	/**
+	 * Adds a feature which is already indexed, at the next position of the
+	 * instance. A negative index only skips the position.
+	 * 
+	 * @param index
+	 */
+	void addIndexedFeature(int index)
+	{
+		currentFeaturePosition++;
+		if (index < 0)
+		{
+			return;
+		}
+		if (numFeatures == featuresBitmap.length)
+		{
+			featuresBitmap = Arrays.copyOf(featuresBitmap, numFeatures * 2);
 		}
+		featuresBitmap[numFeatures++] = index;
+	}
+
+	/**
+	 * @return the position of the next feature or class added to the instance
+	 */
+	int getCurrentPosition()
+	{
+		return currentFeaturePosition;
 	}
 
 	/**
-	 * Sets the class of the {@link LACInstance}
+	 * Sets the class of the {@link LACInstance}. An unknown class of a
+	 * lookup-only instance is left unset.
 	 * 
 	 * @param label
 	 */
 	public void setClass(String label)
 	{
-		indexedClass = instances.registerClass(label, currentFeaturePosition++);
+		int position = currentFeaturePosition;
+		setIndexedClass(lookupOnly ? instances.lookupClass(label, position) : instances.registerClass(label, position));
+	}
+
+	/**
+	 * Sets the class of the {@link LACInstance} to an already indexed one.
+	 * 
+	 * @param index
+	 */
+	void setIndexedClass(int index)
+	{
+		indexedClass = index;
+		currentFeaturePosition++;
 	}
 
 	/**
@@ -86,11 +143,13 @@ public class LACInstance implements Serializable
 	 */
 	public void setHiddenClass(String label)
 	{
-		indexedHiddenClass = instances.registerClass(label, currentFeaturePosition++);
+		int position = currentFeaturePosition++;
+		indexedHiddenClass = lookupOnly ? instances.lookupClass(label, position) : instances.registerClass(label, position);
 	}
 
 	/**
-	 * Gets the hidden class associated to this instance
+	 * Gets the hidden class associated to this instance, or null if it is
+	 * unknown to a lookup-only instance.
 	 * 
 	 * @return
 	 */
@@ -100,14 +159,42 @@ public class LACInstance implements Serializable
 	}
 		
 	/**
-	 * Returns an array of longs, containing the indexed features of this
-	 * instance.
+	 * Returns an array of ints, containing the indexed features of this
+	 * instance. Only the first {@link #getNumFeatures()} positions are valid.
 	 */
-	List<Integer> getIndexedFeatures()
+	int[] getIndexedFeatures()
 	{
 		return featuresBitmap;
 	}
 
+	/**
+	 * @return the number of indexed features of this instance
+	 */
+	int getNumFeatures()
+	{
+		return numFeatures;
+	}
+
+	/**
+	 * Replaces the indexes of the features and of the class of this instance.
+	 * 
+	 * @param features
+	 *            the new index of each feature, by its current index
+	 * @param classes
+	 *            the new index of each class, by its current index
+	 */
+	void remap(int[] features, int[] classes)
+	{
+		for (int i = 0; i < numFeatures; i++)
+		{
+			featuresBitmap[i] = features[featuresBitmap[i]];
+		}
+		if (indexedClass >= 0)
+		{
+			indexedClass = classes[indexedClass];
+		}
+	}
+
 	/**
 	 * @return the indexedClass
 	 */
@@ -121,8 +208,9 @@ public class LACInstance implements Serializable
 	{
 		StringBuilder str = new StringBuilder();
 		boolean first = true;
-		for (int i : featuresBitmap)
+		for (int j = 0; j < numFeatures; j++)
 		{
+			int i = featuresBitmap[j];
 			if(!first)
 			{
 				str.append(",");				
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.Serializable;
+
+/**
+ * A set of {@link LACInstance} indexes, such as the instances that contain a
+ * given combination of features.
+ */
+public abstract class LACInstanceSet implements Serializable
+{
+	private static final long serialVersionUID = 2873370951617785406L;
+
+	/**
+	 * @return the number of instances in the set
+	 */
+	abstract int size();
+
+	/**
+	 * Returns true if the given instance belongs to the set.
+	 *
+	 * @param instance
+	 */
+	abstract boolean contains(int instance);
+
+	/**
+	 * Counts, for each class, how many instances of the set belong to it.
+	 *
+	 * @param classes
+	 * @param count
+	 *            receives the number of instances per class. It must be
+	 *            filled with zeros.
+	 */
+	abstract void countClasses(LACClassOccurrences classes, int[] count);
+}
@@ -10,9 +10,11 @@
  */
 package weka.classifiers.rules;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
@@ -26,13 +28,24 @@ public class LACInstances implements Serializable
 {
 	private static final long serialVersionUID = -1049032103955322561L;
 
+	/**
+	 * The instances of a sliding window are renumbered from 0 once the oldest
+	 * one passes this number, long before numbers overflow.
+	 */
+	private static final int RENUMBER_THRESHOLD = 1 << 30;
+
 	private List<LACInstance> instances = new ArrayList<LACInstance>(50000);
+	private int numInstances;
 	private LACFeatureIndex featureIndex = new LACFeatureIndex();
 	private LACClassIndex classIndex = new LACClassIndex();
 	private LACFeatureOccurrences featureOccurrences = new LACFeatureOccurrences();
 	private LACClassOccurrences classOccurrences = new LACClassOccurrences();
 	private LACRules rules;
+	private LACWindow window;
 	private boolean considerFeaturePosition;
+	private transient LACPostingList[] featurePostings;
+	private transient int[] instanceClasses;
+	private transient boolean updating;
 
 	public LACInstances(boolean considerFeaturePosition)
 	{
@@ -58,16 +71,313 @@ public class LACInstances implements Serializable
 	{
 		LACInstance instance = new LACInstance(this);
 		this.instances.add(instance);
+		this.numInstances++;
 		return instance;
 	}
 
+	/**
+	 * Creates a {@link LACInstance} to be classified. Its features and class
+	 * are looked up in the indexes of this training set, which are never
+	 * changed; unknown features are ignored.
+	 */
+	public LACInstance createNewTestInstance()
+	{
+		return new LACInstance(this, true);
+	}
+
+	/**
+	 * Adds instances which were created, but not added, by this training set.
+	 * 
+	 * @param created
+	 */
+	void addTrainingInstances(List<LACInstance> created)
+	{
+		this.instances.addAll(created);
+		this.numInstances += created.size();
+	}
+
+	/**
+	 * Replaces the index of features. It must be called before any feature is
+	 * registered.
+	 * 
+	 * @param featureIndex
+	 */
+	void setFeatureIndex(LACFeatureIndex featureIndex)
+	{
+		if (this.featureIndex.size() > 0)
+		{
+			throw new IllegalStateException("Features were already indexed");
+		}
+		this.featureIndex = featureIndex;
+	}
+
+	/**
+	 * Replaces the map of the instances containing each feature. It must be
+	 * called before {@link LACInstances} is prepared.
+	 * 
+	 * @param featureOccurrences
+	 */
+	void setFeatureOccurrences(LACFeatureOccurrences featureOccurrences)
+	{
+		checkNotPrepared();
+		this.featureOccurrences = featureOccurrences;
+	}
+
+	/**
+	 * Makes the training set slide over a stream of instances: once prepared,
+	 * it only holds the instances of the given window, and the ones which
+	 * leave the window are expired as instances are added or time passes. The
+	 * instances themselves are not kept. It must be called before
+	 * {@link LACInstances} is prepared.
+	 * 
+	 * @param window
+	 */
+	void setWindow(LACWindow window)
+	{
+		checkNotPrepared();
+		this.window = window;
+	}
+
+	/**
+	 * Sets the instances containing each feature, so that they are not
+	 * gathered again from the instances when {@link LACInstances} is prepared.
+	 * 
+	 * @param postings
+	 *            the sorted positions of the instances containing each
+	 *            feature, by index of feature
+	 */
+	void setFeaturePostings(LACPostingList[] postings)
+	{
+		this.featurePostings = postings;
+	}
+
+	/**
+	 * Restores the contents of a training set from a model, so that it can be
+	 * prepared without its {@link LACInstance}s, which are not kept.
+	 * 
+	 * @param classes
+	 *            the classes, in order of index
+	 * @param features
+	 *            the index of features
+	 * @param classOfInstance
+	 *            the index of the class of each instance
+	 * @param postings
+	 *            the sorted positions of the instances containing each
+	 *            feature, by index of feature
+	 * @throws IOException
+	 *             if classes are repeated
+	 */
+	void restore(List<LACClass> classes, LACFeatureIndex features, int[] classOfInstance, LACPostingList[] postings)
+			throws IOException
+	{
+		for (int i = 0; i < classes.size(); i++)
+		{
+			if (registerClass(classes.get(i)) != i)
+			{
+				throw new IOException("Repeated class: " + classes.get(i));
+			}
+		}
+		this.featureIndex = features;
+		this.numInstances = classOfInstance.length;
+		this.instanceClasses = classOfInstance;
+		this.featurePostings = postings;
+	}
+
+	/**
+	 * Allows classes and features to be indexed by the instances to be added
+	 * to a prepared training set, until {@link #endUpdate()}. A mapped index
+	 * of features, which cannot grow, is copied to the heap.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the training set cannot be updated, before anything is
+	 *             changed
+	 */
+	void beginUpdate()
+	{
+		if (rules == null)
+		{
+			throw new IllegalStateException("The training set is not prepared");
+		}
+		if (!featureOccurrences.isUpdatable())
+		{
+			throw new UnsupportedOperationException("The training set cannot be updated");
+		}
+		if (featureIndex instanceof LACMappedFeatureIndex)
+		{
+			featureIndex = ((LACMappedFeatureIndex) featureIndex).copy();
+		}
+		updating = true;
+	}
+
+	/**
+	 * Adds instances to a prepared training set, after the ones it already
+	 * holds. The instances of their classes and features are extended in
+	 * place, and only the cached rules and intersections of combinations
+	 * involving their features are dropped. In a sliding window, the
+	 * instances which leave it are expired the same way, and instances are
+	 * renumbered by {@link #renumber()} before their numbers grow too large.
+	 * 
+	 * @param added
+	 *            instances indexed between {@link #beginUpdate()} and
+	 *            {@link #endUpdate()}
+	 * @throws IllegalStateException
+	 *             if there are too many instances to number them, which only
+	 *             happens outside of sliding windows
+	 */
+	void update(List<LACInstance> added)
+	{
+		if (!updating)
+		{
+			throw new IllegalStateException("No update was begun");
+		}
+		if (window != null && window.getFirst() >= RENUMBER_THRESHOLD)
+		{
+			renumber();
+		}
+		if ((long) getFirstInstance() + numInstances + added.size() > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Too many instances to number: " + numInstances + " and "
+					+ added.size() + " more");
+		}
+		int first = getFirstInstance() + numInstances;
+		int[] classes = new int[added.size()];
+		for (int i = 0; i < classes.length; i++)
+		{
+			classes[i] = added.get(i).getIndexedClass();
+		}
+		classOccurrences.append(classes);
+		BitSet touched = featureOccurrences.append(added, first);
+		if (window != null)
+		{
+			for (int i = 0; i < classes.length; i++)
+			{
+				LACInstance instance = added.get(i);
+				window.add(Arrays.copyOf(instance.getIndexedFeatures(), instance.getNumFeatures()), classes[i]);
+			}
+			numInstances += added.size();
+			expire(touched);
+		}
+		else
+		{
+			if (instances.size() == first)
+			{
+				instances.addAll(added);
+			}
+			numInstances += added.size();
+		}
+		featureOccurrences.invalidate(touched);
+		rules.invalidate(touched);
+	}
+
+	/**
+	 * Renumbers the instances of a sliding window from 0, as saved models
+	 * are, so that instances keep streaming in without their numbers
+	 * overflowing. Cached intersections hold the former numbers and are
+	 * dropped, while cached rules only hold counts and weights and remain
+	 * valid.
+	 */
+	void renumber()
+	{
+		int delta = window.getFirst();
+		classOccurrences.renumber(delta);
+		featureOccurrences.renumber(delta);
+		window.renumber(delta);
+	}
+
+	/**
+	 * Moves the time of a sliding window forward, expiring the instances
+	 * which become too old. Instances added afterwards are stamped with the
+	 * given time.
+	 * 
+	 * @param time
+	 * @throws IllegalArgumentException
+	 *             if the given time is before the current one
+	 */
+	void advanceTime(long time)
+	{
+		if (window == null || rules == null)
+		{
+			throw new IllegalStateException("The training set is not a prepared window");
+		}
+		if (window.setTime(time))
+		{
+			rules.clearWeights();
+		}
+		BitSet touched = new BitSet();
+		expire(touched);
+		featureOccurrences.invalidate(touched);
+		rules.invalidate(touched);
+	}
+
+	/**
+	 * Expires the instances which left the window, oldest first, marking
+	 * their features.
+	 */
+	private void expire(BitSet touched)
+	{
+		while (window.isFirstExpired())
+		{
+			int instance = window.getFirst();
+			int clazz = classOccurrences.getClassOfInstance(instance);
+			featureOccurrences.expire(instance, window.getFeatures(instance), touched);
+			classOccurrences.expireFirst();
+			window.removeFirst(clazz);
+			numInstances--;
+		}
+	}
+
+	/**
+	 * Stops indexing classes and features.
+	 */
+	void endUpdate()
+	{
+		updating = false;
+	}
+
 	/**
 	 * Gets the total number of instances.
 	 * 
 	 */
 	public int length()
 	{
-		return instances.size();
+		return numInstances;
+	}
+
+	/**
+	 * Returns the position of the oldest instance. Instances are numbered in
+	 * the order they are added, so it is only above 0 in a sliding window,
+	 * once instances have expired.
+	 */
+	int getFirstInstance()
+	{
+		return window != null ? window.getFirst() : 0;
+	}
+
+	/**
+	 * @return true if instances are weighted by their age
+	 */
+	boolean isWeighted()
+	{
+		return window != null && window.isWeighted();
+	}
+
+	/**
+	 * @return the sum of the weights of all instances, or their number if
+	 *         they are not weighted
+	 */
+	double getTotalWeight()
+	{
+		return window != null ? window.getTotalWeight() : numInstances;
+	}
+
+	/**
+	 * Returns the sum of the weights of the instances of a class.
+	 * 
+	 * @param clazz
+	 */
+	double getClassWeight(int clazz)
+	{
+		return isWeighted() ? window.getClassWeight(clazz) : getInstancesOfClass(clazz).size();
 	}
 
 	/**
@@ -83,8 +393,32 @@ public class LACInstances implements Serializable
 	{
 		if (this.rules == null)
 		{
-			this.classOccurrences.createMap(this);
-			this.featureOccurrences.createMap(this);
+			if (this.instanceClasses != null)
+			{
+				this.classOccurrences.createMap(instanceClasses);
+				this.instanceClasses = null;
+			}
+			else
+			{
+				this.classOccurrences.createMap(this);
+			}
+			if (this.featureOccurrences.getMode() != LACFeatureOccurrences.Mode.LISTS)
+			{
+				this.classOccurrences.createBitmaps();
+			}
+			if (this.featurePostings != null)
+			{
+				this.featureOccurrences.createMap(featurePostings, length());
+				this.featurePostings = null;
+			}
+			else
+			{
+				this.featureOccurrences.createMap(this);
+			}
+			if (this.window != null)
+			{
+				slide();
+			}
 			this.considerFeaturePosition = considerFeaturePosition;
 			this.rules = new LACRules(this, maxRuleSize, minSupport, minConfidence, debug);
 		}
@@ -92,6 +426,71 @@ public class LACInstances implements Serializable
 		return rules;
 	}
 
+	/**
+	 * Turns the maps of a training set about to be prepared into the ones of
+	 * a sliding window. The features of each instance are gathered from the
+	 * instances containing each feature, so that it works for restored
+	 * training sets as well, and instances beyond the window are expired
+	 * right away.
+	 */
+	private void slide()
+	{
+		int[] numFeatures = new int[numInstances];
+		for (int feature = 0; feature < getNumFeatures(); feature++)
+		{
+			LACPostingList list = getInstancesWithFeature(feature);
+			for (int i = 0; i < list.size(); i++)
+			{
+				numFeatures[list.get(i)]++;
+			}
+		}
+		int[][] features = new int[numInstances][];
+		for (int i = 0; i < numInstances; i++)
+		{
+			features[i] = new int[numFeatures[i]];
+			numFeatures[i] = 0;
+		}
+		for (int feature = 0; feature < getNumFeatures(); feature++)
+		{
+			LACPostingList list = getInstancesWithFeature(feature);
+			for (int i = 0; i < list.size(); i++)
+			{
+				int instance = list.get(i);
+				features[instance][numFeatures[instance]++] = feature;
+			}
+		}
+
+		classOccurrences.useRings();
+		featureOccurrences.useRings();
+		for (int i = 0; i < numInstances; i++)
+		{
+			window.add(features[i], classOccurrences.getClassOfInstance(i));
+		}
+		instances = new ArrayList<LACInstance>(0);
+		expire(new BitSet());
+	}
+
+	/**
+	 * Sets how the instances containing each feature are stored. It has no
+	 * effect after {@link LACInstances} has been prepared.
+	 * 
+	 * @param mode
+	 */
+	void setOccurrenceMode(LACFeatureOccurrences.Mode mode)
+	{
+		this.featureOccurrences.setMode(mode);
+	}
+
+	/**
+	 * Sets the maximum number of intersections of features kept in cache.
+	 * 
+	 * @param capacity
+	 */
+	void setIntersectionCacheCapacity(int capacity)
+	{
+		this.featureOccurrences.setCacheCapacity(capacity);
+	}
+
 	/**
 	 * Indexes a class.
 	 * 
@@ -101,7 +500,20 @@ public class LACInstances implements Serializable
 	 */
 	int registerClass(String label, int position)
 	{
-		LACClass clazz = new LACClass(label, position, considerFeaturePosition);
+		return registerClass(new LACClass(label, position, considerFeaturePosition));
+	}
+
+	/**
+	 * Indexes a class.
+	 * 
+	 * @param clazz
+	 * @return the index of the given class
+	 * @throws IllegalStateException
+	 *             if {@link LACInstances} is already prepared
+	 */
+	int registerClass(LACClass clazz)
+	{
+		checkNotPrepared();
 		return classIndex.indexOf(clazz);
 	}
 
@@ -114,10 +526,64 @@ public class LACInstances implements Serializable
 	 */
 	int registerFeature(String label, int position)
 	{
-		LACFeature feature = new LACFeature(label, position, considerFeaturePosition);
+		return registerFeature(new LACFeature(label, position, considerFeaturePosition));
+	}
+
+	/**
+	 * Indexes a feature
+	 * 
+	 * @param feature
+	 * @return the index of the given feature
+	 * @throws IllegalStateException
+	 *             if {@link LACInstances} is already prepared
+	 */
+	int registerFeature(LACFeature feature)
+	{
+		checkNotPrepared();
 		return featureIndex.indexOf(feature);
 	}
 
+	/**
+	 * Once prepared, the indexes of classes and features are shared by every
+	 * instance being classified, and must not grow: instances to be
+	 * classified are created by {@link #createNewTestInstance()}, which only
+	 * looks labels up. Only instances being added by an update may index new
+	 * labels.
+	 */
+	private void checkNotPrepared()
+	{
+		if (rules != null && !updating)
+		{
+			throw new IllegalStateException("The training set is prepared, its indexes can no longer grow");
+		}
+	}
+
+	/**
+	 * Looks up a class without indexing it.
+	 * 
+	 * @param label
+	 * @param position
+	 * @return the index of the given class, or -1 if it is unknown
+	 */
+	int lookupClass(String label, int position)
+	{
+		LACClass clazz = new LACClass(label, position, considerFeaturePosition);
+		return classIndex.lookup(clazz);
+	}
+
+	/**
+	 * Looks up a feature without indexing it.
+	 * 
+	 * @param label
+	 * @param position
+	 * @return the index of the given feature, or -1 if it is unknown
+	 */
+	int lookupFeature(String label, int position)
+	{
+		LACFeature feature = new LACFeature(label, position, considerFeaturePosition);
+		return featureIndex.lookup(feature);
+	}
+
 	/**
 	 * Gets the class by its index. Useful to get the class based on the
 	 * calculated probabilities.
@@ -139,6 +605,44 @@ public class LACInstances implements Serializable
 		return featureIndex.getFeature(index);
 	}
 
+	/**
+	 * @return true if features are told apart by their positions
+	 */
+	boolean considerFeaturePosition()
+	{
+		return considerFeaturePosition;
+	}
+
+	/**
+	 * @return the number of indexed features
+	 */
+	int getNumFeatures()
+	{
+		return featureIndex.size();
+	}
+
+	/**
+	 * Returns the index of the class of the instance at the given position,
+	 * or -1 if it has no class.
+	 * 
+	 * @param position
+	 */
+	int getClassOfInstance(int position)
+	{
+		return classOccurrences.getClassOfInstance(position);
+	}
+
+	/**
+	 * Gets the instances containing a feature, as a list.
+	 * 
+	 * @param feature
+	 */
+	LACPostingList getInstancesWithFeature(int feature)
+	{
+		LACInstanceSet set = featureOccurrences.instancesWithFeature(feature);
+		return set instanceof LACBitmap ? ((LACBitmap) set).toPostingList() : (LACPostingList) set;
+	}
+
 	/**
 	 * Gets all classes present in the training set
 	 */
@@ -157,19 +661,81 @@ public class LACInstances implements Serializable
 		return classIndex.indexOf(clazz);
 	}
 
+	/**
+	 * Makes sure that the instances containing the given features can be
+	 * got without waiting.
+	 * 
+	 * @param features
+	 * @param count
+	 *            the number of features
+	 * @throws IOException
+	 */
+	void prefetch(int[] features, int count) throws IOException
+	{
+		featureOccurrences.prefetch(features, count);
+	}
+
 	/**
 	 * Gets all instances that have all given features
 	 * 
 	 * @param featuresIndexes
 	 */
-	List<Integer> getInstancesWithFeatures(List<Integer> featuresIndexes)
+	LACInstanceSet getInstancesWithFeatures(LACPatternKey featuresIndexes)
 	{
-		List<Integer> result = featureOccurrences.instancesWithFeatures(featuresIndexes);
-		if(result == null)
+		return featureOccurrences.instancesWithFeatures(featuresIndexes);
+	}
+
+	/**
+	 * Gets all instances that have all given features, unless there are
+	 * fewer than <code>minCount</code>, which is told without intersecting
+	 * them when possible.
+	 * 
+	 * @param featuresIndexes
+	 * @param minCount
+	 * @return the instances, or null if there are fewer than
+	 *         <code>minCount</code>
+	 */
+	LACInstanceSet getInstancesWithFeatures(LACPatternKey featuresIndexes, int minCount)
+	{
+		return featureOccurrences.instancesWithFeatures(featuresIndexes, minCount);
+	}
+
+	/**
+	 * Counts, for each class, how many instances of the given set belong to
+	 * it.
+	 * 
+	 * @param instances
+	 * @param count
+	 */
+	void countClasses(LACInstanceSet instances, int[] count)
+	{
+		instances.countClasses(classOccurrences, count);
+	}
+
+	/**
+	 * Sums up, for each class, the weights of the instances of the given set
+	 * which belong to it. Instances must be weighted, so the set is a list.
+	 * 
+	 * @param instances
+	 * @param weight
+	 * @return the sum of the weights of all instances of the set
+	 */
+	double weighClasses(LACInstanceSet instances, double[] weight)
+	{
+		LACPostingList list = (LACPostingList) instances;
+		double total = 0;
+		for (int i = 0; i < list.size(); i++)
 		{
-			result = Collections.emptyList();
+			int instance = list.get(i);
+			double instanceWeight = window.getWeight(instance);
+			int clazz = classOccurrences.getClassOfInstance(instance);
+			if (clazz >= 0)
+			{
+				weight[clazz] += instanceWeight;
+			}
+			total += instanceWeight;
 		}
-		return result;
+		return total;
 	}
 	
 	/**
@@ -177,7 +743,7 @@ public class LACInstances implements Serializable
 	 * @param classIndex
 	 * @return
 	 */
-	List<Integer> getInstancesOfClass(int classIndex)
+	LACPostingList getInstancesOfClass(int classIndex)
 	{
 		return classOccurrences.getInstancesOfClass(classIndex);
 	}
@@ -187,10 +753,10 @@ public class LACInstances implements Serializable
 	 * @param features
 	 * @return
 	 */
-	List<String> indexesToLabels(List<Integer> features)
+	List<String> indexesToLabels(LACPatternKey features)
 	{
 		List<String> result = new ArrayList<String>();
-		for(int i = 0; i < features.size(); i++)
+		for(int i = 0; i < features.length(); i++)
 		{
 			result.add(getFeatureByIndex(features.get(i)).getLabel());
 		}
@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+
+/**
+ * Intersects {@link LACInstanceSet}s, choosing the algorithm according to
+ * their representations and sizes:
+ * <ul>
+ * <li>two bitmaps are intersected word by word;</li>
+ * <li>a list and a bitmap are intersected by probing the bitmap with each
+ * element of the list;</li>
+ * <li>two lists of similar sizes are merged linearly;</li>
+ * <li>a small list and a much larger one are intersected by galloping
+ * (exponential followed by binary search) over the larger list, so the cost
+ * depends mostly on the size of the smaller one.</li>
+ * </ul>
+ */
+final class LACIntersection
+{
+	/**
+	 * Two lists are merged linearly unless one of them is at least this many
+	 * times larger than the other.
+	 */
+	static final int GALLOP_RATIO = 16;
+
+	private LACIntersection()
+	{
+	}
+
+	/**
+	 * Returns the instances present in both sets.
+	 *
+	 * @param oneSet
+	 * @param otherSet
+	 */
+	static LACInstanceSet intersect(LACInstanceSet oneSet, LACInstanceSet otherSet)
+	{
+		if (oneSet.size() == 0 || otherSet.size() == 0)
+		{
+			return LACPostingList.EMPTY;
+		}
+
+		if (oneSet instanceof LACBitmap)
+		{
+			if (otherSet instanceof LACBitmap)
+			{
+				return ((LACBitmap) oneSet).and((LACBitmap) otherSet);
+			}
+			return probe((LACPostingList) otherSet, oneSet);
+		}
+		else if (otherSet instanceof LACBitmap)
+		{
+			return probe((LACPostingList) oneSet, otherSet);
+		}
+
+		LACPostingList oneList = (LACPostingList) oneSet;
+		LACPostingList otherList = (LACPostingList) otherSet;
+		if (oneList.size() > otherList.size())
+		{
+			LACPostingList swap = oneList;
+			oneList = otherList;
+			otherList = swap;
+		}
+
+		if ((long) oneList.size() * GALLOP_RATIO <= otherList.size())
+		{
+			return gallop(oneList, otherList);
+		}
+		return merge(oneList, otherList);
+	}
+
+	/**
+	 * Returns the instances present in all given sets. Sets are intersected
+	 * from the smallest to the largest, stopping as soon as the result is
+	 * empty. The order of the array is changed.
+	 *
+	 * @param sets
+	 */
+	static LACInstanceSet intersectAll(LACInstanceSet[] sets)
+	{
+		sortBySize(sets);
+
+		LACInstanceSet result = sets[0];
+		for (int i = 1; i < sets.length && result.size() > 0; i++)
+		{
+			result = intersect(result, sets[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Sorts the sets by size, in ascending order. Arrays are as long as the
+	 * largest rule, so an insertion sort is enough.
+	 *
+	 * @param sets
+	 */
+	private static void sortBySize(LACInstanceSet[] sets)
+	{
+		for (int i = 1; i < sets.length; i++)
+		{
+			LACInstanceSet current = sets[i];
+			int j = i - 1;
+			while (j >= 0 && sets[j].size() > current.size())
+			{
+				sets[j + 1] = sets[j];
+				j--;
+			}
+			sets[j + 1] = current;
+		}
+	}
+
+	/**
+	 * Intersects a list and any other set by looking up each element of the
+	 * list in the set.
+	 *
+	 * @param list
+	 * @param set
+	 */
+	private static LACPostingList probe(LACPostingList list, LACInstanceSet set)
+	{
+		int listSize = list.size();
+		int[] intersection = new int[listSize];
+		int intersectionSize = 0;
+
+		for (int i = 0; i < listSize; i++)
+		{
+			int elem = list.get(i);
+			if (set.contains(elem))
+			{
+				intersection[intersectionSize++] = elem;
+			}
+		}
+
+		return result(intersection, intersectionSize);
+	}
+
+	/**
+	 * Intersects two lists sorted in ascending order by walking both at the
+	 * same time. Both lists must not have duplicated elements.
+	 *
+	 * @param oneList
+	 * @param otherList
+	 */
+	private static LACPostingList merge(LACPostingList oneList, LACPostingList otherList)
+	{
+		int oneIndex = 0;
+		int oneSize = oneList.size();
+
+		int otherIndex = 0;
+		int otherSize = otherList.size();
+
+		int[] intersection = new int[Math.min(oneSize, otherSize)];
+		int intersectionSize = 0;
+
+		while (oneIndex < oneSize && otherIndex < otherSize)
+		{
+			int oneElem = oneList.get(oneIndex);
+			int otherElem = otherList.get(otherIndex);
+
+			if (oneElem == otherElem)
+			{
+				intersection[intersectionSize++] = oneElem;
+				oneIndex++;
+				otherIndex++;
+			}
+			else if (oneElem < otherElem)
+			{
+				oneIndex++;
+			}
+			else
+			{
+				otherIndex++;
+			}
+		}
+
+		return result(intersection, intersectionSize);
+	}
+
+	/**
+	 * Intersects a small list with a large one, both sorted in ascending order
+	 * and without duplicated elements. Each element of the small list is
+	 * searched in the large one starting from the position of the previous
+	 * match.
+	 *
+	 * @param smallList
+	 * @param largeList
+	 */
+	private static LACPostingList gallop(LACPostingList smallList, LACPostingList largeList)
+	{
+		int smallSize = smallList.size();
+		int largeSize = largeList.size();
+		int[] intersection = new int[smallSize];
+		int intersectionSize = 0;
+
+		int largeIndex = 0;
+		for (int i = 0; i < smallSize && largeIndex < largeSize; i++)
+		{
+			int elem = smallList.get(i);
+			largeIndex = gallopSearch(elem, largeIndex, largeList);
+			if (largeIndex < largeSize && largeList.get(largeIndex) == elem)
+			{
+				intersection[intersectionSize++] = elem;
+				largeIndex++;
+			}
+		}
+
+		return result(intersection, intersectionSize);
+	}
+
+	/**
+	 * Executes an exponential search for the given element on the list,
+	 * followed by a binary search on the range where it may be found.
+	 *
+	 * @param elem
+	 * @param start
+	 * @param list
+	 * @return the index of the element if it exists. Otherwise, returns the
+	 *         index of the first greater element.
+	 */
+	private static int gallopSearch(int elem, int start, LACPostingList list)
+	{
+		int size = list.size();
+		if (list.get(start) >= elem)
+		{
+			return start;
+		}
+
+		int low = start;
+		int step = 1;
+		int high = start + step;
+		while (high < size && list.get(high) < elem)
+		{
+			low = high;
+			step <<= 1;
+			high = start + step;
+		}
+		if (high > size)
+		{
+			high = size;
+		}
+
+		// list[low] < elem and (high == size or list[high] >= elem)
+		low++;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (list.get(middle) < elem)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static LACPostingList result(int[] intersection, int size)
+	{
+		if (size == 0)
+		{
+			return LACPostingList.EMPTY;
+		}
+		return new LACPostingList(Arrays.copyOf(intersection, size), size);
+	}
+}
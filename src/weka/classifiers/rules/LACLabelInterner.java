@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+
+/**
+ * Maps labels, given as slices of UTF-8 bytes, to ints. Each label may also be
+ * told apart by its position in the instance. <br/>
+ * Labels are numbered by a {@link LACLabelTable} in the heap, so a lookup
+ * allocates nothing, and the value of each one is kept by its number.
+ */
+final class LACLabelInterner
+{
+	private final LACLabelTable labels;
+	private int[] values = new int[512];
+
+	/**
+	 * @param considerPosition
+	 *            if true, the same label at different positions is a different
+	 *            entry
+	 */
+	LACLabelInterner(boolean considerPosition)
+	{
+		this.labels = new LACLabelTable(considerPosition, false);
+	}
+
+	/**
+	 * Returns the value of a label, or -1 if it was never added.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @param position
+	 */
+	int get(byte[] bytes, int start, int length, int position)
+	{
+		int entry = labels.find(bytes, start, length, position);
+		return entry < 0 ? -1 : values[entry];
+	}
+
+	/**
+	 * Adds a label which is not present yet.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @param position
+	 * @param value
+	 */
+	void put(byte[] bytes, int start, int length, int position, int value)
+	{
+		int entry = labels.add(bytes, start, length, position);
+		if (entry == values.length)
+		{
+			values = Arrays.copyOf(values, entry * 2);
+		}
+		values[entry] = value;
+	}
+
+	/**
+	 * @return the number of labels added
+	 */
+	int size()
+	{
+		return labels.size();
+	}
+}
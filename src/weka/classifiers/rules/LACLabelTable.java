@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Numbers labels, given as UTF-8 bytes, and optionally the positions they
+ * appear at, in the order they are added. Labels are stored one after the
+ * other in a byte buffer, with the offset and position of each entry in int
+ * buffers, and entries are looked up in an open addressing table of entry
+ * numbers, so a lookup allocates nothing. <br/>
+ * The buffers are either owned by the table, in the heap or outside of it,
+ * and grown as entries are added, or given, e.g. by a mapped model, and then
+ * only read.
+ */
+final class LACLabelTable
+{
+	private static final int INITIAL_CAPACITY = 512;
+
+	private final boolean considerPosition;
+	private final boolean direct;
+	private final boolean readOnly;
+	private ByteBuffer labels;
+	private IntBuffer offsets;
+	private IntBuffer positions;
+	private int[] table;
+	private int size;
+
+	/**
+	 * Creates an empty table, which grows as entries are added.
+	 *
+	 * @param considerPosition
+	 *            if true, the same label at different positions is a different
+	 *            entry
+	 * @param direct
+	 *            if true, labels are stored outside the heap
+	 */
+	LACLabelTable(boolean considerPosition, boolean direct)
+	{
+		this.considerPosition = considerPosition;
+		this.direct = direct;
+		this.readOnly = false;
+		this.labels = allocate(INITIAL_CAPACITY * 8);
+		this.offsets = IntBuffer.allocate(INITIAL_CAPACITY + 1);
+		this.positions = IntBuffer.allocate(INITIAL_CAPACITY);
+		this.table = new int[INITIAL_CAPACITY * 2];
+	}
+
+	/**
+	 * Creates a read-only table of the entries stored in the given buffers.
+	 * Only the table of entry numbers is allocated.
+	 *
+	 * @param positions
+	 *            the position of each entry
+	 * @param offsets
+	 *            the offset of the label of each entry in <code>labels</code>,
+	 *            followed by the end of the last one
+	 * @param labels
+	 *            the UTF-8 labels of all entries
+	 * @param considerPosition
+	 *            if true, entries are told apart by their positions
+	 */
+	LACLabelTable(IntBuffer positions, IntBuffer offsets, ByteBuffer labels, boolean considerPosition)
+	{
+		this.considerPosition = considerPosition;
+		this.direct = false;
+		this.readOnly = true;
+		this.labels = labels;
+		this.offsets = offsets;
+		this.positions = positions;
+		this.size = positions.limit();
+		rehash(Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1);
+	}
+
+	/**
+	 * Returns the number of an entry, or -1 if it was never added.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @param position
+	 */
+	int find(byte[] bytes, int start, int length, int position)
+	{
+		int index = table[slotOf(bytes, start, length, position, hash(bytes, start, length, position))];
+		return index - 1;
+	}
+
+	/**
+	 * Adds an entry which is not present yet.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @param position
+	 * @return the number of the new entry
+	 */
+	int add(byte[] bytes, int start, int length, int position)
+	{
+		if (readOnly)
+		{
+			throw new UnsupportedOperationException("The table is read-only");
+		}
+		int index = size;
+		if (index == positions.capacity())
+		{
+			positions = IntBuffer.wrap(Arrays.copyOf(positions.array(), index * 2));
+			offsets = IntBuffer.wrap(Arrays.copyOf(offsets.array(), index * 2 + 1));
+		}
+		int offset = offsets.get(index);
+		if ((long) offset + length > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Too many labels for a table");
+		}
+		if (labels.capacity() - offset < length)
+		{
+			long capacity = Math.max((long) labels.capacity() * 2, (long) offset + length);
+			ByteBuffer grown = allocate((int) Math.min(capacity, Integer.MAX_VALUE));
+			labels.limit(offset).position(0);
+			grown.put(labels);
+			labels = grown;
+		}
+		labels.position(offset);
+		labels.put(bytes, start, length);
+		offsets.put(index + 1, offset + length);
+		positions.put(index, position);
+
+		int hash = hash(bytes, start, length, position);
+		table[slotOf(bytes, start, length, position, hash)] = index + 1;
+		size++;
+		if (size * 2 > table.length)
+		{
+			rehash(table.length * 2);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the position of an entry.
+	 *
+	 * @param index
+	 */
+	int getPosition(int index)
+	{
+		return positions.get(index);
+	}
+
+	/**
+	 * Returns the UTF-8 label of an entry.
+	 *
+	 * @param index
+	 */
+	byte[] getLabel(int index)
+	{
+		int offset = offsets.get(index);
+		byte[] label = new byte[offsets.get(index + 1) - offset];
+		for (int i = 0; i < label.length; i++)
+		{
+			label[i] = labels.get(offset + i);
+		}
+		return label;
+	}
+
+	private ByteBuffer allocate(int capacity)
+	{
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * Returns the slot of the table holding the given entry, or the empty
+	 * slot where it should be added.
+	 */
+	private int slotOf(byte[] bytes, int start, int length, int position, int hash)
+	{
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask)
+		{
+			int index = table[slot] - 1;
+			if (index < 0 || matches(index, bytes, start, length, position))
+			{
+				return slot;
+			}
+		}
+	}
+
+	private boolean matches(int index, byte[] bytes, int start, int length, int position)
+	{
+		int offset = offsets.get(index);
+		if (offsets.get(index + 1) - offset != length || (considerPosition && positions.get(index) != position))
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (labels.get(offset + i) != bytes[start + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity)
+	{
+		table = new int[capacity];
+		int mask = capacity - 1;
+		for (int index = 0; index < size; index++)
+		{
+			int slot = hash(index) & mask;
+			while (table[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = index + 1;
+		}
+	}
+
+	/**
+	 * Hashes a stored entry, as {@link #hash(byte[], int, int, int)} does.
+	 */
+	private int hash(int index)
+	{
+		int hash = considerPosition ? positions.get(index) : 0;
+		for (int i = offsets.get(index); i < offsets.get(index + 1); i++)
+		{
+			hash = 31 * hash + labels.get(i);
+		}
+		return mix(hash);
+	}
+
+	private int hash(byte[] bytes, int start, int length, int position)
+	{
+		int hash = considerPosition ? position : 0;
+		for (int i = start; i < start + length; i++)
+		{
+			hash = 31 * hash + bytes[i];
+		}
+		return mix(hash);
+	}
+
+	private static int mix(int hash)
+	{
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		return hash ^ (hash >>> 13);
+	}
+}
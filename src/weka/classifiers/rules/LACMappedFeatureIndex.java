@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A read-only {@link LACFeatureIndex} whose labels and positions stay in
+ * buffers, usually a memory mapped model file. Only the open addressing table
+ * of a {@link LACLabelTable} is kept in the heap, to look features up by
+ * label. When serialized, it is replaced by an ordinary index.
+ */
+final class LACMappedFeatureIndex extends LACFeatureIndex
+{
+	private static final long serialVersionUID = -4781519262178930329L;
+
+	private final transient boolean considerPosition;
+	private final transient LACLabelTable table;
+
+	/**
+	 * @param positions
+	 *            the position of each feature
+	 * @param offsets
+	 *            the offset of the label of each feature in
+	 *            <code>labels</code>, followed by the end of the last one
+	 * @param labels
+	 *            the UTF-8 labels of all features
+	 * @param considerPosition
+	 *            if true, features are told apart by their positions
+	 */
+	LACMappedFeatureIndex(IntBuffer positions, IntBuffer offsets, ByteBuffer labels, boolean considerPosition)
+	{
+		this.considerPosition = considerPosition;
+		this.table = new LACLabelTable(positions, offsets, labels, considerPosition);
+	}
+
+	/**
+	 * Returns the index of the given feature, which must be present: a
+	 * mapped index cannot grow.
+	 *
+	 * @param feature
+	 */
+	@Override
+	int indexOf(LACFeature feature)
+	{
+		int index = lookup(feature);
+		if (index < 0)
+		{
+			throw new UnsupportedOperationException("Mapped indexes are read-only");
+		}
+		return index;
+	}
+
+	@Override
+	int lookup(LACFeature feature)
+	{
+		byte[] label = feature.getLabel().getBytes(LACTokenizer.CHARSET);
+		return table.find(label, 0, label.length, feature.getPosition());
+	}
+
+	@Override
+	LACFeature getFeature(int indexedFeature)
+	{
+		if (indexedFeature < 0 || indexedFeature >= size())
+		{
+			return null;
+		}
+		return new LACFeature(new String(table.getLabel(indexedFeature), LACTokenizer.CHARSET),
+				table.getPosition(indexedFeature), considerPosition);
+	}
+
+	@Override
+	int size()
+	{
+		return table.size();
+	}
+
+	/**
+	 * Copies the index to the heap, as an ordinary index which can grow.
+	 */
+	LACFeatureIndex copy()
+	{
+		LACFeatureIndex copy = new LACFeatureIndex();
+		for (int i = 0; i < size(); i++)
+		{
+			copy.indexOf(getFeature(i));
+		}
+		return copy;
+	}
+
+	private Object writeReplace() throws ObjectStreamException
+	{
+		return copy();
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder("{");
+		for (int i = 0; i < size(); i++)
+		{
+			result.append(i > 0 ? ", " : "").append(i).append('=').append(getFeature(i));
+		}
+		return result.append('}').toString();
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.ObjectStreamException;
+import java.nio.IntBuffer;
+
+/**
+ * A read-only {@link LACPostingList} whose elements stay in a buffer, usually
+ * a memory mapped model file, instead of being copied to the heap. When
+ * serialized, it is replaced by an ordinary list.
+ */
+final class LACMappedPostingList extends LACPostingList
+{
+	private static final long serialVersionUID = 2645409541936787734L;
+
+	private final transient IntBuffer instances;
+
+	/**
+	 * @param instances
+	 *            the sorted elements of the list, from position 0 to the
+	 *            limit of the buffer
+	 */
+	LACMappedPostingList(IntBuffer instances)
+	{
+		super(0);
+		this.instances = instances;
+	}
+
+	@Override
+	void add(int instance)
+	{
+		throw new UnsupportedOperationException("Mapped lists are read-only");
+	}
+
+	@Override
+	void trim()
+	{
+	}
+
+	@Override
+	int get(int position)
+	{
+		return instances.get(position);
+	}
+
+	@Override
+	int size()
+	{
+		return instances.limit();
+	}
+
+	@Override
+	boolean contains(int instance)
+	{
+		int low = 0;
+		int high = instances.limit() - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int value = instances.get(middle);
+			if (value < instance)
+			{
+				low = middle + 1;
+			}
+			else if (value > instance)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	void countClasses(LACClassOccurrences classes, int[] count)
+	{
+		int size = instances.limit();
+		for (int i = 0; i < size; i++)
+		{
+			int clazz = classes.getClassOfInstance(instances.get(i));
+			if (clazz >= 0)
+			{
+				count[clazz]++;
+			}
+		}
+	}
+
+	/**
+	 * Copies the list to the heap.
+	 */
+	LACPostingList copy()
+	{
+		int[] copy = new int[instances.limit()];
+		instances.duplicate().get(copy);
+		return new LACPostingList(copy, copy.length);
+	}
+
+	private Object writeReplace() throws ObjectStreamException
+	{
+		return copy();
+	}
+
+	@Override
+	public String toString()
+	{
+		return copy().toString();
+	}
+}
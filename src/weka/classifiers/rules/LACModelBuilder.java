@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles a trained {@link LAC} from the instances containing each class and
+ * each feature, gathered elsewhere, e.g. by a distributed job. Classes and
+ * features are indexed in the order they are added; adding them in the order
+ * they first appear in the training set gives the model a sequential
+ * training would give.
+ */
+public final class LACModelBuilder
+{
+	private final int numInstances;
+	private final boolean considerFeaturePosition;
+	private final List<LACClass> classes = new ArrayList<LACClass>();
+	private final int[] classOfInstance;
+	private final LACFeatureIndex features;
+	private LACPostingList[] postings = new LACPostingList[16];
+
+	/**
+	 * @param numInstances
+	 *            the number of training instances
+	 * @param considerFeaturePosition
+	 *            if true, features are told apart by their positions
+	 * @param offHeapFeatureIndex
+	 *            if true, labels of features are kept outside the heap, as
+	 *            with {@link LAC#setOffHeapFeatureIndex(boolean)}
+	 */
+	public LACModelBuilder(int numInstances, boolean considerFeaturePosition, boolean offHeapFeatureIndex)
+	{
+		this.numInstances = numInstances;
+		this.considerFeaturePosition = considerFeaturePosition;
+		this.classOfInstance = new int[numInstances];
+		Arrays.fill(classOfInstance, -1);
+		this.features = offHeapFeatureIndex ? new LACOffHeapFeatureIndex(considerFeaturePosition)
+				: new LACFeatureIndex();
+	}
+
+	/**
+	 * Adds the next class.
+	 *
+	 * @param label
+	 * @param position
+	 *            where the class first appears in an instance
+	 * @param instances
+	 *            the instances of the class, in ascending order
+	 * @throws IOException
+	 *             if instances are out of order or already have a class
+	 */
+	public void addClass(String label, int position, int[] instances) throws IOException
+	{
+		int clazz = classes.size();
+		classes.add(new LACClass(label, position, considerFeaturePosition));
+		checkInstances(instances, label);
+		for (int instance : instances)
+		{
+			if (classOfInstance[instance] >= 0)
+			{
+				throw new IOException("Instance " + instance + " has more than one class");
+			}
+			classOfInstance[instance] = clazz;
+		}
+	}
+
+	/**
+	 * Adds the next feature.
+	 *
+	 * @param label
+	 * @param position
+	 *            where the feature first appears in an instance
+	 * @param instances
+	 *            the instances containing the feature, in ascending order
+	 * @throws IOException
+	 *             if the feature was already added or instances are out of
+	 *             order
+	 */
+	public void addFeature(String label, int position, int[] instances) throws IOException
+	{
+		LACFeature feature = new LACFeature(label, position, considerFeaturePosition);
+		int index = features.size();
+		if (features.indexOf(feature) != index)
+		{
+			throw new IOException("Repeated feature: " + feature);
+		}
+		checkInstances(instances, label);
+		if (index == postings.length)
+		{
+			postings = Arrays.copyOf(postings, index * 2);
+		}
+		postings[index] = new LACPostingList(instances, instances.length);
+	}
+
+	private void checkInstances(int[] instances, String label) throws IOException
+	{
+		for (int j = 0; j < instances.length; j++)
+		{
+			if (instances[j] < 0 || instances[j] >= numInstances || (j > 0 && instances[j] <= instances[j - 1]))
+			{
+				throw new IOException("Invalid instances of " + label);
+			}
+		}
+	}
+
+	/**
+	 * Trains a classifier with the added classes and features. The builder
+	 * must not be used afterwards.
+	 *
+	 * @param classifier
+	 *            a classifier which is not built yet, whose settings are used
+	 * @return the given classifier
+	 * @throws Exception
+	 */
+	public LAC build(LAC classifier) throws Exception
+	{
+		LACInstances instances = new LACInstances(considerFeaturePosition);
+		instances.restore(classes, features, classOfInstance, Arrays.copyOf(postings, features.size()));
+		classifier.restore(instances, considerFeaturePosition);
+		return classifier;
+	}
+}
@@ -0,0 +1,482 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a {@link LAC} written by {@link LACModelWriter}, in one of two ways:
+ * <ul>
+ * <li>from any channel, reading arrays in bulk into primitive arrays;</li>
+ * <li>from a file, mapping it into memory. The feature dictionary and the
+ * instances containing each feature are then used straight from the mapped
+ * file, so the operating system shares them among all processes which map
+ * the same model, and opening it takes little more than reading its header.
+ * </li>
+ * </ul>
+ * A mapped model may also be read as shards, each holding the instances
+ * containing a range of features, and as the rest of the model, which fetches
+ * them from the shards; see {@link LACShard}.
+ */
+final class LACModelReader
+{
+	/**
+	 * Instances containing features are mapped in regions of about this many
+	 * bytes, holding whole lists.
+	 */
+	private static final long MAPPING_SIZE = 1 << 30;
+
+	private final ReadableByteChannel channel;
+	private final FileChannel file;
+	private final long start;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private long consumed;
+
+	private double minConfidence;
+	private double minSupport;
+	private int maxRuleSize;
+	private int mode;
+	private int rulesCacheCapacity;
+	private int intersectionCacheCapacity;
+	private boolean considerFeaturePosition;
+	private int numInstances;
+	private int numClasses;
+	private int numFeatures;
+
+	/**
+	 * Creates a reader which copies the model into the heap.
+	 *
+	 * @param channel
+	 *            where the model is read from. It is not closed.
+	 */
+	LACModelReader(ReadableByteChannel channel)
+	{
+		this.channel = channel;
+		this.file = null;
+		this.start = 0;
+		buffer.limit(0);
+	}
+
+	/**
+	 * Creates a reader which maps the model into memory, from the current
+	 * position of the file on.
+	 *
+	 * @param file
+	 *            where the model is read from. It is not closed, and it may be
+	 *            closed once the model is read.
+	 * @throws IOException
+	 */
+	LACModelReader(FileChannel file) throws IOException
+	{
+		this.channel = file;
+		this.file = file;
+		this.start = file.position();
+		buffer.limit(0);
+	}
+
+	/**
+	 * Reads a model.
+	 *
+	 * @return a classifier ready to classify instances
+	 * @throws IOException
+	 *             if the model is malformed or of an unsupported version
+	 * @throws Exception
+	 */
+	LAC read() throws Exception
+	{
+		return read(null);
+	}
+
+	/**
+	 * Reads a model, as {@link #read()} does, or maps it with the instances
+	 * containing each feature left to shards, which must have been read by
+	 * {@link #readShard(int, int)} from the same model.
+	 *
+	 * @param shards
+	 *            the shards serving the instances containing each feature, in
+	 *            order, which requires a mapped model, or null to read them
+	 *            from the model
+	 * @return a classifier ready to classify instances
+	 * @throws IOException
+	 *             if the model is malformed or of an unsupported version
+	 * @throws Exception
+	 */
+	LAC read(LACRemoteShard[] shards) throws Exception
+	{
+		if (shards != null && file == null)
+		{
+			throw new IllegalStateException("Only a mapped model can be sharded");
+		}
+		readHeader();
+
+		List<LACClass> classes = new ArrayList<LACClass>(numClasses);
+		int[] classPositions = getInts(numClasses);
+		String[] classLabels = getLabels(numClasses);
+		for (int i = 0; i < numClasses; i++)
+		{
+			classes.add(new LACClass(classLabels[i], classPositions[i], considerFeaturePosition));
+		}
+
+		LACFeatureIndex features;
+		int[] classOfInstance;
+		LACPostingList[] postings;
+		LACShardedFeatureOccurrences occurrences = null;
+		if (file == null)
+		{
+			int[] featurePositions = getInts(numFeatures);
+			String[] featureLabels = getLabels(numFeatures);
+			features = new LACFeatureIndex();
+			for (int i = 0; i < numFeatures; i++)
+			{
+				LACFeature feature = new LACFeature(featureLabels[i], featurePositions[i], considerFeaturePosition);
+				if (features.indexOf(feature) != i)
+				{
+					throw new IOException("Repeated feature: " + feature);
+				}
+			}
+
+			classOfInstance = getInts(numInstances);
+			int[] offsets = checkOffsets(getInts(numFeatures + 1));
+			postings = new LACPostingList[numFeatures];
+			for (int i = 0; i < numFeatures; i++)
+			{
+				int[] instances = getInts(offsets[i + 1] - offsets[i]);
+				for (int j = 0; j < instances.length; j++)
+				{
+					if (instances[j] < 0 || instances[j] >= numInstances || (j > 0 && instances[j] <= instances[j - 1]))
+					{
+						throw new IOException("Invalid instances of feature " + features.getFeature(i));
+					}
+				}
+				postings[i] = new LACPostingList(instances, instances.length);
+			}
+		}
+		else
+		{
+			long position = start + consumed - buffer.remaining();
+			IntBuffer featurePositions = mapInts(position, numFeatures);
+			position += 4L * numFeatures;
+			IntBuffer labelOffsets = mapInts(position, numFeatures + 1);
+			checkOffsets(labelOffsets);
+			position += 4L * (numFeatures + 1);
+			int labelsLength = labelOffsets.get(numFeatures);
+			ByteBuffer labels = map(position, labelsLength);
+			position += labelsLength + (4 - labelsLength % 4) % 4;
+			features = new LACMappedFeatureIndex(featurePositions, labelOffsets, labels, considerFeaturePosition);
+
+			classOfInstance = new int[numInstances];
+			mapInts(position, numInstances).get(classOfInstance);
+			position += 4L * numInstances;
+
+			IntBuffer offsets = mapInts(position, numFeatures + 1);
+			checkOffsets(offsets);
+			position += 4L * (numFeatures + 1);
+			if (shards != null)
+			{
+				postings = new LACPostingList[0];
+				occurrences = new LACShardedFeatureOccurrences(LACShard.partition(offsets, numFeatures,
+						shards.length), shards);
+			}
+			else
+			{
+				postings = mapPostings(position, offsets, 0, numFeatures);
+			}
+		}
+
+		for (int clazz : classOfInstance)
+		{
+			if (clazz < -1 || clazz >= numClasses)
+			{
+				throw new IOException("Invalid class: " + clazz);
+			}
+		}
+
+		LAC classifier = new LAC(minConfidence, minSupport, maxRuleSize);
+		classifier.setOccurrenceMode(LACFeatureOccurrences.Mode.values()[mode]);
+		classifier.setRulesCacheCapacity(rulesCacheCapacity);
+		classifier.setIntersectionCacheCapacity(intersectionCacheCapacity);
+		LACInstances instances = new LACInstances(considerFeaturePosition);
+		instances.restore(classes, features, classOfInstance, postings);
+		if (occurrences != null)
+		{
+			instances.setFeatureOccurrences(occurrences);
+		}
+		classifier.restore(instances, considerFeaturePosition);
+		return classifier;
+	}
+
+	/**
+	 * Reads the settings and sizes at the start of a model.
+	 */
+	private void readHeader() throws IOException
+	{
+		if (getInt() != LACModelWriter.MAGIC)
+		{
+			throw new IOException("Not a LAC model");
+		}
+		int version = getInt();
+		if (version != LACModelWriter.VERSION)
+		{
+			throw new IOException("Unsupported model version: " + version);
+		}
+
+		minConfidence = getDouble();
+		minSupport = getDouble();
+		maxRuleSize = getInt();
+		mode = getInt();
+		rulesCacheCapacity = getInt();
+		intersectionCacheCapacity = getInt();
+		considerFeaturePosition = getInt() != 0;
+		numInstances = getCount();
+		numClasses = getCount();
+		numFeatures = getCount();
+		if (mode >= LACFeatureOccurrences.Mode.values().length)
+		{
+			throw new IOException("Unknown occurrence mode: " + mode);
+		}
+	}
+
+	/**
+	 * Reads the instances containing the features of one shard of a mapped
+	 * model into the heap, skipping everything else.
+	 *
+	 * @param shard
+	 *            the index of the shard
+	 * @param numShards
+	 *            the number of shards the features are partitioned into
+	 * @return the shard
+	 * @throws IOException
+	 *             if the model is malformed or of an unsupported version
+	 */
+	LACShard readShard(int shard, int numShards) throws IOException
+	{
+		if (file == null)
+		{
+			throw new IllegalStateException("Only a mapped model can be sharded");
+		}
+		if (shard < 0 || shard >= numShards)
+		{
+			throw new IllegalArgumentException("Invalid shard " + shard + " of " + numShards);
+		}
+		readHeader();
+		getInts(numClasses);
+		getLabels(numClasses);
+
+		long position = start + consumed - buffer.remaining();
+		position += 4L * numFeatures;
+		IntBuffer labelOffsets = mapInts(position, numFeatures + 1);
+		checkOffsets(labelOffsets);
+		int labelsLength = labelOffsets.get(numFeatures);
+		position += 4L * (numFeatures + 1) + labelsLength + (4 - labelsLength % 4) % 4;
+		position += 4L * numInstances;
+
+		IntBuffer offsets = mapInts(position, numFeatures + 1);
+		checkOffsets(offsets);
+		position += 4L * (numFeatures + 1);
+		int[] bounds = LACShard.partition(offsets, numFeatures, numShards);
+		int first = bounds[shard];
+		int last = bounds[shard + 1];
+
+		LACPostingList[] postings = mapPostings(position, offsets, first, last);
+		for (int i = 0; i < postings.length; i++)
+		{
+			LACPostingList list = ((LACMappedPostingList) postings[i]).copy();
+			for (int j = 0; j < list.size(); j++)
+			{
+				if (list.get(j) < 0 || list.get(j) >= numInstances || (j > 0 && list.get(j) <= list.get(j - 1)))
+				{
+					throw new IOException("Invalid instances of feature " + (first + i));
+				}
+			}
+			postings[i] = list;
+		}
+		return new LACShard(first, postings);
+	}
+
+	/**
+	 * Maps the instances containing the features of a range.
+	 *
+	 * @param position
+	 *            where the instances of the first feature of the model start
+	 * @param offsets
+	 *            the offset of the instances of each feature, followed by the
+	 *            end of the last one
+	 * @param from
+	 *            the first feature of the range
+	 * @param to
+	 *            the feature after the last one
+	 * @return the lists of the features of the range
+	 */
+	private LACPostingList[] mapPostings(long position, IntBuffer offsets, int from, int to) throws IOException
+	{
+		LACPostingList[] postings = new LACPostingList[to - from];
+		int first = from;
+		while (first < to)
+		{
+			int regionStart = offsets.get(first);
+			int last = first + 1;
+			while (last < to && 4L * (offsets.get(last + 1) - regionStart) <= MAPPING_SIZE)
+			{
+				last++;
+			}
+
+			IntBuffer region = mapInts(position + 4L * regionStart, offsets.get(last) - regionStart);
+			for (int i = first; i < last; i++)
+			{
+				region.limit(offsets.get(i + 1) - regionStart).position(offsets.get(i) - regionStart);
+				postings[i - from] = new LACMappedPostingList(region.slice());
+			}
+			first = last;
+		}
+		return postings;
+	}
+
+	private ByteBuffer map(long position, long length) throws IOException
+	{
+		if (length > Integer.MAX_VALUE)
+		{
+			throw new IOException("Section too large to map: " + length + " bytes");
+		}
+		if (position + length > file.size())
+		{
+			throw new EOFException("Truncated model");
+		}
+		return file.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+	private IntBuffer mapInts(long position, long count) throws IOException
+	{
+		return map(position, 4L * count).asIntBuffer();
+	}
+
+	/**
+	 * Reads labels preceded by their offsets and followed by padding.
+	 */
+	private String[] getLabels(int count) throws IOException
+	{
+		int[] offsets = checkOffsets(getInts(count + 1));
+		byte[] bytes = new byte[offsets[count]];
+		getBytes(bytes);
+		getBytes(new byte[(4 - bytes.length % 4) % 4]);
+
+		String[] labels = new String[count];
+		for (int i = 0; i < count; i++)
+		{
+			labels[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], LACTokenizer.CHARSET);
+		}
+		return labels;
+	}
+
+	/**
+	 * Checks that offsets are ascending and start at zero.
+	 */
+	private static int[] checkOffsets(int[] offsets) throws IOException
+	{
+		checkOffsets(IntBuffer.wrap(offsets));
+		return offsets;
+	}
+
+	private static void checkOffsets(IntBuffer offsets) throws IOException
+	{
+		if (offsets.get(0) != 0)
+		{
+			throw new IOException("Invalid offsets");
+		}
+		for (int i = 1; i < offsets.limit(); i++)
+		{
+			if (offsets.get(i) < offsets.get(i - 1))
+			{
+				throw new IOException("Invalid offsets");
+			}
+		}
+	}
+
+	private int getCount() throws IOException
+	{
+		int count = getInt();
+		if (count < 0)
+		{
+			throw new IOException("Invalid count: " + count);
+		}
+		return count;
+	}
+
+	private int getInt() throws IOException
+	{
+		require(4);
+		return buffer.getInt();
+	}
+
+	private double getDouble() throws IOException
+	{
+		require(8);
+		return buffer.getDouble();
+	}
+
+	private int[] getInts(int count) throws IOException
+	{
+		int[] values = new int[count];
+		int read = 0;
+		while (read < count)
+		{
+			require(4);
+			int length = Math.min(count - read, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, read, length);
+			buffer.position(buffer.position() + length * 4);
+			read += length;
+		}
+		return values;
+	}
+
+	private void getBytes(byte[] bytes) throws IOException
+	{
+		int read = 0;
+		while (read < bytes.length)
+		{
+			require(1);
+			int length = Math.min(bytes.length - read, buffer.remaining());
+			buffer.get(bytes, read, length);
+			read += length;
+		}
+	}
+
+	/**
+	 * Makes sure that at least the given number of bytes are buffered.
+	 *
+	 * @throws EOFException
+	 *             if the model ends before
+	 */
+	private void require(int bytes) throws IOException
+	{
+		if (buffer.remaining() >= bytes)
+		{
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes)
+		{
+			int read = channel.read(buffer);
+			if (read < 0)
+			{
+				throw new EOFException("Truncated model");
+			}
+			consumed += read;
+		}
+		buffer.flip();
+	}
+}
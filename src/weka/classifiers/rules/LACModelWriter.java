@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a trained {@link LAC} in a compact binary format, read back by
+ * {@link LACModelReader}. Everything but the caches is written: the settings,
+ * the dictionaries of classes and features, the class of each training
+ * instance, and the instances containing each feature. Values are big-endian
+ * and every section starts at a multiple of 4 bytes:
+ *
+ * <pre>
+ * int      magic, "LACM"
+ * int      version
+ * double   minimum confidence
+ * double   minimum support
+ * int      maximum rule size
+ * int      occurrence mode, by ordinal
+ * int      rules cache capacity
+ * int      intersection cache capacity
+ * int      1 if features are told apart by their positions, 0 otherwise
+ * int      number of instances
+ * int      number of classes
+ * int      number of features
+ * class dictionary:
+ *   int[classes]        position of each class
+ *   int[classes + 1]    offset of the label of each class
+ *   byte[]              UTF-8 labels, padded to a multiple of 4 bytes
+ * feature dictionary:
+ *   int[features]       position of each feature
+ *   int[features + 1]   offset of the label of each feature
+ *   byte[]              UTF-8 labels, padded to a multiple of 4 bytes
+ * int[instances]        class of each instance, -1 if none
+ * int[features + 1]     offset of the instances containing each feature
+ * int[]                 sorted instances containing each feature
+ * </pre>
+ */
+final class LACModelWriter
+{
+	/**
+	 * Identifies a model file: "LACM" in ASCII.
+	 */
+	static final int MAGIC = 0x4C41434D;
+
+	/**
+	 * The version of the format written.
+	 */
+	static final int VERSION = 1;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+	/**
+	 * @param channel
+	 *            where the model is written. It is not closed.
+	 */
+	LACModelWriter(WritableByteChannel channel)
+	{
+		this.channel = channel;
+	}
+
+	/**
+	 * Writes a model.
+	 *
+	 * @param classifier
+	 * @param instances
+	 *            the prepared training set of the classifier. The instances of
+	 *            a sliding window are renumbered from 0, and saved without
+	 *            their weights.
+	 * @throws IOException
+	 */
+	void write(LAC classifier, LACInstances instances) throws IOException
+	{
+		int first = instances.getFirstInstance();
+		int numInstances = instances.length();
+		int numClasses = instances.getAllClasses().size();
+		int numFeatures = instances.getNumFeatures();
+
+		putInt(MAGIC);
+		putInt(VERSION);
+		putDouble(classifier.getMinConfidence());
+		putDouble(classifier.getMinSupport());
+		putInt(classifier.getMaxRuleSize());
+		putInt(classifier.getOccurrenceMode().ordinal());
+		putInt(classifier.getRulesCacheCapacity());
+		putInt(classifier.getIntersectionCacheCapacity());
+		putInt(instances.considerFeaturePosition() ? 1 : 0);
+		putInt(numInstances);
+		putInt(numClasses);
+		putInt(numFeatures);
+
+		LACFeature[] classes = new LACFeature[numClasses];
+		for (int i = 0; i < numClasses; i++)
+		{
+			classes[i] = instances.getClassByIndex(i);
+		}
+		putDictionary(classes);
+
+		LACFeature[] features = new LACFeature[numFeatures];
+		for (int i = 0; i < numFeatures; i++)
+		{
+			features[i] = instances.getFeatureByIndex(i);
+		}
+		putDictionary(features);
+
+		for (int i = 0; i < numInstances; i++)
+		{
+			putInt(instances.getClassOfInstance(first + i));
+		}
+
+		LACPostingList[] postings = new LACPostingList[numFeatures];
+		int offset = 0;
+		putInt(offset);
+		for (int i = 0; i < numFeatures; i++)
+		{
+			postings[i] = instances.getInstancesWithFeature(i);
+			offset += postings[i].size();
+			putInt(offset);
+		}
+		for (LACPostingList posting : postings)
+		{
+			for (int i = 0; i < posting.size(); i++)
+			{
+				putInt(posting.get(i) - first);
+			}
+		}
+		drain();
+	}
+
+	private void putDictionary(LACFeature[] entries) throws IOException
+	{
+		byte[][] labels = new byte[entries.length][];
+		for (int i = 0; i < entries.length; i++)
+		{
+			putInt(entries[i].getPosition());
+			labels[i] = entries[i].getLabel().getBytes(LACTokenizer.CHARSET);
+		}
+
+		int offset = 0;
+		putInt(offset);
+		for (byte[] label : labels)
+		{
+			offset += label.length;
+			putInt(offset);
+		}
+		for (byte[] label : labels)
+		{
+			putBytes(label);
+		}
+		putBytes(new byte[(4 - offset % 4) % 4]);
+	}
+
+	private void putInt(int value) throws IOException
+	{
+		if (buffer.remaining() < 4)
+		{
+			drain();
+		}
+		buffer.putInt(value);
+	}
+
+	private void putDouble(double value) throws IOException
+	{
+		if (buffer.remaining() < 8)
+		{
+			drain();
+		}
+		buffer.putDouble(value);
+	}
+
+	private void putBytes(byte[] bytes) throws IOException
+	{
+		int written = 0;
+		while (written < bytes.length)
+		{
+			if (!buffer.hasRemaining())
+			{
+				drain();
+			}
+			int length = Math.min(buffer.remaining(), bytes.length - written);
+			buffer.put(bytes, written, length);
+			written += length;
+		}
+	}
+
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A {@link LACFeatureIndex} for very large vocabularies. Instead of a
+ * {@link LACFeature}, a label and a boxed index per entry, features are
+ * numbered by a {@link LACLabelTable} whose labels are stored as UTF-8 in a
+ * direct buffer, outside the heap.
+ * <br/>
+ * Features are equal when their labels are, and, if positions are
+ * considered, their positions too, as in {@link LACFeature#equals(Object)}.
+ */
+final class LACOffHeapFeatureIndex extends LACFeatureIndex
+{
+	private static final long serialVersionUID = 3195004734721589526L;
+
+	private final boolean considerPosition;
+	private transient LACLabelTable table;
+
+	/**
+	 * @param considerPosition
+	 *            if true, features are told apart by their positions
+	 */
+	LACOffHeapFeatureIndex(boolean considerPosition)
+	{
+		this.considerPosition = considerPosition;
+		this.table = new LACLabelTable(considerPosition, true);
+	}
+
+	@Override
+	int indexOf(LACFeature feature)
+	{
+		byte[] label = feature.getLabel().getBytes(LACTokenizer.CHARSET);
+		int index = table.find(label, 0, label.length, feature.getPosition());
+		return index >= 0 ? index : table.add(label, 0, label.length, feature.getPosition());
+	}
+
+	@Override
+	int lookup(LACFeature feature)
+	{
+		byte[] label = feature.getLabel().getBytes(LACTokenizer.CHARSET);
+		return table.find(label, 0, label.length, feature.getPosition());
+	}
+
+	@Override
+	LACFeature getFeature(int indexedFeature)
+	{
+		if (indexedFeature < 0 || indexedFeature >= table.size())
+		{
+			return null;
+		}
+		return new LACFeature(new String(table.getLabel(indexedFeature), LACTokenizer.CHARSET),
+				table.getPosition(indexedFeature), considerPosition);
+	}
+
+	@Override
+	int size()
+	{
+		return table.size();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		out.writeInt(table.size());
+		for (int i = 0; i < table.size(); i++)
+		{
+			byte[] label = table.getLabel(i);
+			out.writeInt(table.getPosition(i));
+			out.writeInt(label.length);
+			out.write(label);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		table = new LACLabelTable(considerPosition, true);
+		int count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			int position = in.readInt();
+			byte[] label = new byte[in.readInt()];
+			in.readFully(label);
+			if (table.find(label, 0, label.length, position) >= 0)
+			{
+				throw new IOException("Repeated feature: " + new String(label, LACTokenizer.CHARSET));
+			}
+			table.add(label, 0, label.length, position);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder("{");
+		for (int i = 0; i < table.size(); i++)
+		{
+			result.append(i > 0 ? ", " : "").append(i).append('=').append(getFeature(i));
+		}
+		return result.append('}').toString();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+
+/**
+ * Reads training instances in the LAC format (<code>id class feature feature ...</code>)
+ * from a {@link LACTokenizer}. Classes and features are interned by their
+ * bytes, so a label is decoded into a String only the first time it is seen.
+ * By default, instances, classes and features are added straight to the
+ * training set; subclasses may collect them elsewhere.
+ */
+class LACParser
+{
+	/**
+	 * Marks a training set whose features are told apart by their positions.
+	 */
+	static final byte[] POSITIONAL_MARKER = { 'w', '[' };
+
+	final LACInstances instances;
+	final boolean considerFeaturePosition;
+	private final LACLabelInterner classes = new LACLabelInterner(false);
+	private final LACLabelInterner features;
+
+	/**
+	 * @param instances
+	 *            the training set instances are added to
+	 * @param considerFeaturePosition
+	 */
+	LACParser(LACInstances instances, boolean considerFeaturePosition)
+	{
+		this.instances = instances;
+		this.considerFeaturePosition = considerFeaturePosition;
+		this.features = new LACLabelInterner(considerFeaturePosition);
+	}
+
+	/**
+	 * Adds the current line of the tokenizer to the training set.
+	 *
+	 * @param tokenizer
+	 * @return the new instance
+	 * @throws IOException
+	 *             if the line has no class
+	 */
+	LACInstance parseTrainingInstance(LACTokenizer tokenizer) throws IOException
+	{
+		if (!tokenizer.nextToken() || !tokenizer.nextToken())
+		{
+			tokenizer.fail("Missing class");
+		}
+
+		LACInstance instance = newInstance();
+		int position = instance.getCurrentPosition();
+		byte[] buffer = tokenizer.getBuffer();
+		int start = tokenizer.getTokenStart();
+		int length = tokenizer.getTokenLength();
+		int clazz = classes.get(buffer, start, length, position);
+		if (clazz < 0)
+		{
+			clazz = registerClass(tokenizer.getToken(), position);
+			classes.put(buffer, start, length, position, clazz);
+		}
+		instance.setIndexedClass(clazz);
+
+		while (tokenizer.nextToken())
+		{
+			if (tokenizer.isBlankToken() || tokenizer.tokenIs('?'))
+			{
+				instance.addIndexedFeature(-1);
+				continue;
+			}
+
+			position = instance.getCurrentPosition();
+			start = tokenizer.getTokenStart();
+			length = tokenizer.getTokenLength();
+			int feature = features.get(buffer, start, length, position);
+			if (feature < 0)
+			{
+				feature = registerFeature(tokenizer.getToken(), position);
+				features.put(buffer, start, length, position, feature);
+			}
+			instance.addIndexedFeature(feature);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates the instance a line is parsed into.
+	 */
+	LACInstance newInstance()
+	{
+		return instances.createNewTrainingInstance();
+	}
+
+	/**
+	 * Indexes a class seen for the first time.
+	 *
+	 * @param label
+	 * @param position
+	 */
+	int registerClass(String label, int position)
+	{
+		return instances.registerClass(label, position);
+	}
+
+	/**
+	 * Indexes a feature seen for the first time.
+	 *
+	 * @param label
+	 * @param position
+	 */
+	int registerFeature(String label, int position)
+	{
+		return instances.registerFeature(label, position);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+/**
+ * Compact representation of the rules of a combination of features. Instead of
+ * a list of {@link LACRule}s, a pattern is described by a single
+ * <code>int[]</code> holding the number of training instances which contain
+ * it, followed by a (class, count) pair for each class present in those
+ * instances, in ascending order of class:
+ *
+ * <pre>
+ * [total, class, count, class, count, ...]
+ * </pre>
+ *
+ * The support and confidence of each rule are derived from these counts when
+ * the pattern is scored. A pattern pruned for lack of support is only
+ * described by an upper bound on its total, stored negated:
+ *
+ * <pre>
+ * [-bound]
+ * </pre>
+ *
+ * It has no classes, hence no rules. When instances are weighted, sums of weights are
+ * packed the same way in a <code>double[]</code>.
+ */
+final class LACPatternCounts
+{
+	/**
+	 * The counts of a pattern absent from the training set.
+	 */
+	static final int[] EMPTY = { 0 };
+
+	/**
+	 * The weights of a pattern absent from the training set.
+	 */
+	static final double[] EMPTY_WEIGHTS = { 0 };
+
+	private LACPatternCounts()
+	{
+	}
+
+	/**
+	 * Packs a pattern pruned for lack of support.
+	 *
+	 * @param bound
+	 *            an upper bound on the number of instances containing the
+	 *            pattern
+	 */
+	static int[] pruned(int bound)
+	{
+		return bound == 0 ? EMPTY : new int[] { -bound };
+	}
+
+	/**
+	 * @return true if the pattern was pruned, so that only an upper bound on
+	 *         its total is known
+	 */
+	static boolean isPruned(int[] packed)
+	{
+		return packed[0] < 0;
+	}
+
+	/**
+	 * @return an upper bound on the number of instances containing the
+	 *         pattern; their exact number if it was not pruned
+	 */
+	static int bound(int[] packed)
+	{
+		return Math.abs(packed[0]);
+	}
+
+	/**
+	 * Packs the counts of a pattern.
+	 *
+	 * @param total
+	 *            number of instances containing the pattern
+	 * @param count
+	 *            number of those instances belonging to each class
+	 */
+	static int[] pack(int total, int[] count)
+	{
+		if (total == 0)
+		{
+			return EMPTY;
+		}
+
+		int numPresent = 0;
+		for (int i = 0; i < count.length; i++)
+		{
+			if (count[i] > 0)
+			{
+				numPresent++;
+			}
+		}
+
+		int[] packed = new int[1 + 2 * numPresent];
+		packed[0] = total;
+		int position = 1;
+		for (int i = 0; i < count.length; i++)
+		{
+			if (count[i] > 0)
+			{
+				packed[position++] = i;
+				packed[position++] = count[i];
+			}
+		}
+		return packed;
+	}
+
+	/**
+	 * @return the number of instances containing the pattern
+	 */
+	static int total(int[] packed)
+	{
+		return packed[0];
+	}
+
+	/**
+	 * @return the number of classes present in instances containing the
+	 *         pattern
+	 */
+	static int numClasses(int[] packed)
+	{
+		return packed.length >>> 1;
+	}
+
+	/**
+	 * @return the i-th class present in instances containing the pattern
+	 */
+	static int classAt(int[] packed, int i)
+	{
+		return packed[1 + 2 * i];
+	}
+
+	/**
+	 * @return the number of instances of the i-th class containing the
+	 *         pattern
+	 */
+	static int countAt(int[] packed, int i)
+	{
+		return packed[2 + 2 * i];
+	}
+
+	/**
+	 * Packs the weights of a pattern.
+	 *
+	 * @param total
+	 *            sum of the weights of the instances containing the pattern
+	 * @param weight
+	 *            sum of the weights of those instances belonging to each
+	 *            class
+	 */
+	static double[] pack(double total, double[] weight)
+	{
+		if (total == 0)
+		{
+			return EMPTY_WEIGHTS;
+		}
+
+		int numPresent = 0;
+		for (int i = 0; i < weight.length; i++)
+		{
+			if (weight[i] > 0)
+			{
+				numPresent++;
+			}
+		}
+
+		double[] packed = new double[1 + 2 * numPresent];
+		packed[0] = total;
+		int position = 1;
+		for (int i = 0; i < weight.length; i++)
+		{
+			if (weight[i] > 0)
+			{
+				packed[position++] = i;
+				packed[position++] = weight[i];
+			}
+		}
+		return packed;
+	}
+
+	/**
+	 * @return the sum of the weights of the instances containing the pattern
+	 */
+	static double total(double[] packed)
+	{
+		return packed[0];
+	}
+
+	/**
+	 * @return the number of classes present in instances containing the
+	 *         pattern
+	 */
+	static int numClasses(double[] packed)
+	{
+		return packed.length >>> 1;
+	}
+
+	/**
+	 * @return the i-th class present in instances containing the pattern
+	 */
+	static int classAt(double[] packed, int i)
+	{
+		return (int) packed[1 + 2 * i];
+	}
+
+	/**
+	 * @return the sum of the weights of the instances of the i-th class
+	 *         containing the pattern
+	 */
+	static double weightAt(double[] packed, int i)
+	{
+		return packed[2 + 2 * i];
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A combination of indexed features, used as the key of the rules and
+ * intersection caches. Features are kept in a primitive array and the hash
+ * code is computed once. <br/>
+ * Keys stored in a cache must never change. A key created by
+ * {@link #LACPatternKey()} may instead be pointed at different arrays with
+ * {@link #set(int[], int)}, so that a cache can be probed without creating any
+ * object; such a key must not be stored.
+ */
+final class LACPatternKey implements Serializable
+{
+	private static final long serialVersionUID = 8152389436906766343L;
+
+	private int[] features;
+	private int length;
+	private int hash;
+
+	/**
+	 * Creates a reusable key, to be set before each lookup.
+	 */
+	LACPatternKey()
+	{
+		this.features = new int[0];
+	}
+
+	/**
+	 * Creates a key made of the first <code>length</code> elements of the
+	 * given array. The array is not copied, so it must not change while the
+	 * key is in use.
+	 *
+	 * @param features
+	 * @param length
+	 */
+	private LACPatternKey(int[] features, int length)
+	{
+		this.features = features;
+		this.length = length;
+		this.hash = hash(features, length);
+	}
+
+	/**
+	 * Creates a key holding a copy of the first <code>length</code> elements
+	 * of the given array.
+	 *
+	 * @param features
+	 * @param length
+	 */
+	static LACPatternKey copyOf(int[] features, int length)
+	{
+		return new LACPatternKey(Arrays.copyOf(features, length), length);
+	}
+
+	/**
+	 * Points this key at the first <code>length</code> elements of the given
+	 * array, without copying them.
+	 *
+	 * @param features
+	 * @param length
+	 * @return this key
+	 */
+	LACPatternKey set(int[] features, int length)
+	{
+		this.features = features;
+		this.length = length;
+		this.hash = hash(features, length);
+		return this;
+	}
+
+	/**
+	 * Returns a key made of the first <code>length</code> features of this
+	 * one. Both keys share the same array.
+	 *
+	 * @param length
+	 */
+	LACPatternKey prefix(int length)
+	{
+		return new LACPatternKey(features, length);
+	}
+
+	/**
+	 * Returns an immutable key made of the features of this one but the one
+	 * at the given position.
+	 *
+	 * @param position
+	 */
+	LACPatternKey without(int position)
+	{
+		int[] result = new int[length - 1];
+		System.arraycopy(features, 0, result, 0, position);
+		System.arraycopy(features, position + 1, result, position, length - position - 1);
+		return new LACPatternKey(result, result.length);
+	}
+
+	/**
+	 * Returns an immutable copy of this key, which may be stored in a cache.
+	 */
+	LACPatternKey copy()
+	{
+		return copyOf(features, length);
+	}
+
+	/**
+	 * @return the number of features in this key
+	 */
+	int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Returns the feature at the given position.
+	 *
+	 * @param position
+	 */
+	int get(int position)
+	{
+		return features[position];
+	}
+
+	/**
+	 * Returns a filter accepting the keys which contain at least one of the
+	 * given features.
+	 *
+	 * @param features
+	 */
+	static LACConcurrentCache.Filter<LACPatternKey> containingAny(final BitSet features)
+	{
+		return new LACConcurrentCache.Filter<LACPatternKey>()
+		{
+			public boolean accept(LACPatternKey key)
+			{
+				for (int i = 0; i < key.length; i++)
+				{
+					if (features.get(key.features[i]))
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	private static int hash(int[] features, int length)
+	{
+		int hash = length;
+		for (int i = 0; i < length; i++)
+		{
+			hash = hash * 0x9E3779B1 + features[i];
+		}
+		return hash ^ (hash >>> 15);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+		if (!(obj instanceof LACPatternKey))
+		{
+			return false;
+		}
+
+		LACPatternKey other = (LACPatternKey) obj;
+		if (other.hash != hash || other.length != length)
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (features[i] != other.features[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(Arrays.copyOf(features, length));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+
+/**
+ * A compact list of {@link LACInstance} indexes, stored as a primitive array
+ * sorted in ascending order and without duplicated elements.
+ */
+public class LACPostingList extends LACInstanceSet
+{
+	private static final long serialVersionUID = -6016713212150906716L;
+
+	/**
+	 * A shared list without elements. It must never be modified.
+	 */
+	static final LACPostingList EMPTY = new LACPostingList(0);
+
+	private int[] instances;
+	private int size;
+
+	/**
+	 * Constructs an empty list able to hold the given number of instances
+	 * before growing.
+	 *
+	 * @param capacity
+	 */
+	LACPostingList(int capacity)
+	{
+		this.instances = new int[capacity];
+	}
+
+	/**
+	 * Constructs a list backed by the given array. The first <code>size</code>
+	 * elements must be sorted in ascending order.
+	 *
+	 * @param instances
+	 * @param size
+	 */
+	LACPostingList(int[] instances, int size)
+	{
+		this.instances = instances;
+		this.size = size;
+	}
+
+	/**
+	 * Appends an instance to the end of the list. Instances must be added in
+	 * ascending order; adding the last element again has no effect.
+	 *
+	 * @param instance
+	 */
+	void add(int instance)
+	{
+		if (size > 0 && instances[size - 1] == instance)
+		{
+			return;
+		}
+
+		if (size == instances.length)
+		{
+			instances = Arrays.copyOf(instances, Math.max(4, size + (size >> 1)));
+		}
+		instances[size++] = instance;
+	}
+
+	/**
+	 * Releases the unused capacity of the backing array.
+	 */
+	void trim()
+	{
+		if (size < instances.length)
+		{
+			instances = Arrays.copyOf(instances, size);
+		}
+	}
+
+	/**
+	 * Returns the instance stored at the given position.
+	 *
+	 * @param position
+	 */
+	int get(int position)
+	{
+		return instances[position];
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	boolean contains(int instance)
+	{
+		return Arrays.binarySearch(instances, 0, size, instance) >= 0;
+	}
+
+	@Override
+	void countClasses(LACClassOccurrences classes, int[] count)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			int clazz = classes.getClassOfInstance(instances[i]);
+			if (clazz >= 0)
+			{
+				count[clazz]++;
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(Arrays.copyOf(instances, size));
+	}
+}
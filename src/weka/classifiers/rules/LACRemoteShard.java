@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link LACShard} served by a {@link LACShardServer}. Each request takes a
+ * connection of its own, so that many threads may fetch from the same shard
+ * at the same time; connections are kept open and reused by later requests.
+ */
+final class LACRemoteShard
+{
+	private final InetSocketAddress address;
+	private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * @param address
+	 *            where the server of the shard listens
+	 */
+	LACRemoteShard(InetSocketAddress address)
+	{
+		this.address = address;
+	}
+
+	/**
+	 * Takes an idle connection to the server, opening one if there is none.
+	 * It must be given back by {@link #release(Connection)} once its reply is
+	 * received, or closed if the request failed.
+	 */
+	Connection acquire() throws IOException
+	{
+		Connection connection = idle.poll();
+		return connection != null ? connection : new Connection(address);
+	}
+
+	/**
+	 * Gives back a connection whose reply was received.
+	 *
+	 * @param connection
+	 */
+	void release(Connection connection)
+	{
+		idle.offer(connection);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "shard at " + address;
+	}
+
+	/**
+	 * A connection to the server of a shard, sending a request and receiving
+	 * its reply.
+	 */
+	static final class Connection
+	{
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private Connection(InetSocketAddress address) throws IOException
+		{
+			socket = new Socket();
+			try
+			{
+				socket.setTcpNoDelay(true);
+				socket.connect(address);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+			catch (IOException e)
+			{
+				socket.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Requests the instances containing some features of the shard.
+		 *
+		 * @param features
+		 * @param from
+		 *            the position of the first feature to request
+		 * @param to
+		 *            the position after the last one
+		 */
+		void send(int[] features, int from, int to) throws IOException
+		{
+			out.writeInt(to - from);
+			for (int i = from; i < to; i++)
+			{
+				out.writeInt(features[i]);
+			}
+			out.flush();
+		}
+
+		/**
+		 * Receives the reply to the last request.
+		 *
+		 * @param lists
+		 *            where the instances containing each requested feature
+		 *            are stored, in order
+		 * @param from
+		 *            the position of the first list
+		 * @param to
+		 *            the position after the last one
+		 * @throws EOFException
+		 *             if the server closed the connection, which it does at
+		 *             invalid requests
+		 */
+		void receive(LACPostingList[] lists, int from, int to) throws IOException
+		{
+			for (int i = from; i < to; i++)
+			{
+				int size = in.readInt();
+				if (size < 0)
+				{
+					throw new IOException("Invalid size: " + size);
+				}
+				int[] instances = new int[size];
+				for (int j = 0; j < size; j++)
+				{
+					instances[j] = in.readInt();
+				}
+				lists[i] = size > 0 ? new LACPostingList(instances, size) : LACPostingList.EMPTY;
+			}
+		}
+
+		/**
+		 * Closes a connection which failed, dropping any pending reply.
+		 */
+		void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				// nothing else to release
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+/**
+ * A {@link LACPostingList} stored in a ring buffer, for training sets which
+ * slide over a stream of instances. Instances are added at the end and, since
+ * the oldest instance of a window is always the first one of every list
+ * containing it, expired from the start, both in constant time.
+ */
+final class LACRingPostingList extends LACPostingList
+{
+	private static final long serialVersionUID = -6651744123924317437L;
+
+	private int[] ring;
+	private int head;
+	private int size;
+
+	/**
+	 * Constructs an empty list.
+	 */
+	LACRingPostingList()
+	{
+		super(0);
+		this.ring = new int[4];
+	}
+
+	/**
+	 * Constructs a list holding the same instances as the given one.
+	 *
+	 * @param list
+	 */
+	LACRingPostingList(LACPostingList list)
+	{
+		super(0);
+		this.size = list.size();
+		this.ring = new int[capacityFor(Math.max(4, size))];
+		for (int i = 0; i < size; i++)
+		{
+			ring[i] = list.get(i);
+		}
+	}
+
+	/**
+	 * Returns the capacity of a ring buffer able to hold the given number of
+	 * elements: the smallest power of two not below it.
+	 *
+	 * @param count
+	 */
+	static int capacityFor(int count)
+	{
+		return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+	}
+
+	@Override
+	void add(int instance)
+	{
+		if (size > 0 && get(size - 1) == instance)
+		{
+			return;
+		}
+		if (size == ring.length)
+		{
+			int[] grown = new int[ring.length * 2];
+			for (int i = 0; i < size; i++)
+			{
+				grown[i] = get(i);
+			}
+			ring = grown;
+			head = 0;
+		}
+		ring[(head + size) & (ring.length - 1)] = instance;
+		size++;
+	}
+
+	/**
+	 * Removes the first instance of the list, if it is the given one.
+	 *
+	 * @param instance
+	 */
+	void removeFirst(int instance)
+	{
+		if (size > 0 && ring[head] == instance)
+		{
+			head = (head + 1) & (ring.length - 1);
+			size--;
+		}
+	}
+
+	/**
+	 * Subtracts the given number from every instance of the list, which keeps
+	 * it sorted.
+	 *
+	 * @param delta
+	 */
+	void renumber(int delta)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			ring[(head + i) & (ring.length - 1)] -= delta;
+		}
+	}
+
+	@Override
+	void trim()
+	{
+	}
+
+	@Override
+	int get(int position)
+	{
+		return ring[(head + position) & (ring.length - 1)];
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	boolean contains(int instance)
+	{
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int value = get(middle);
+			if (value < instance)
+			{
+				low = middle + 1;
+			}
+			else if (value > instance)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	void countClasses(LACClassOccurrences classes, int[] count)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			int clazz = classes.getClassOfInstance(get(i));
+			if (clazz >= 0)
+			{
+				count[clazz]++;
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < size; i++)
+		{
+			result.append(i > 0 ? ", " : "").append(get(i));
+		}
+		return result.append(']').toString();
+	}
+}
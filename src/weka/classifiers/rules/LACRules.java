@@ -11,10 +11,9 @@
 package weka.classifiers.rules;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.BitSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Extracts classification rules from training data.
@@ -27,14 +26,14 @@ public class LACRules implements Serializable
 	private static final long serialVersionUID = 5153978224002423432L;
 
 	private final int maxRuleSize;
-	private LACRulesCache cache = new LACRulesCache();
+	private LACRulesCache cache = new LACRulesCache(LACRulesCache.DEFAULT_CAPACITY);
+	private LACConcurrentCache<LACPatternKey, double[]> weightedCache = new LACConcurrentCache<LACPatternKey, double[]>(LACRulesCache.DEFAULT_CAPACITY);
 	private LACInstances trainingSet;
 	private double minSupport;
 	private double minConfidence;
 	private boolean debug;
-	
-	private int cacheMisses = 0;
-	private int cacheHits = 0;
+	private int parallelThreshold;
+	private transient volatile ThreadLocal<LACScorer> scorers;
 	
 	/**
 	 * Restricted access constructor
@@ -55,18 +54,77 @@ public class LACRules implements Serializable
 		this.debug = debug;
 	}
 
+	/**
+	 * Replaces the rules cache by an empty one with the given capacity.
+	 * 
+	 * @param capacity
+	 */
+	void setCacheCapacity(int capacity)
+	{
+		this.cache = new LACRulesCache(capacity);
+		this.weightedCache = new LACConcurrentCache<LACPatternKey, double[]>(capacity);
+	}
+
+	/**
+	 * Makes test instances with at least the given number of features be
+	 * scored in parallel, the combinations starting with each feature being
+	 * explored by a task of their own.
+	 * 
+	 * @param threshold
+	 *            the number of features, or 0 to always score serially
+	 */
+	void setParallelThreshold(int threshold)
+	{
+		this.parallelThreshold = threshold;
+	}
+
+	/**
+	 * Drops the cached rules of the combinations which contain at least one
+	 * of the given features, after instances containing them were added to
+	 * the training set. Rules are cached as counts, and support is computed
+	 * when they are used, so the rules of other combinations remain valid.
+	 * 
+	 * @param features
+	 */
+	void invalidate(BitSet features)
+	{
+		cache.invalidate(features);
+		if (weightedCache != null)
+		{
+			weightedCache.removeIf(LACPatternKey.containingAny(features));
+		}
+	}
+
+	/**
+	 * Drops all cached weighted rules, after the weights of the training
+	 * instances were scaled.
+	 */
+	void clearWeights()
+	{
+		weightedCache = new LACConcurrentCache<LACPatternKey, double[]>(weightedCache.capacity());
+	}
+
+	/**
+	 * @return true if training instances are weighted, so that rules must be
+	 *         got by {@link #getWeightedRules(LACPatternKey, LACCacheStatistics)}
+	 */
+	boolean isWeighted()
+	{
+		return trainingSet.isWeighted();
+	}
+
 	/**
 	 * Gets the probability of the given test instance belonging to each class.
+	 * It may be called by many threads at the same time.
 	 * 
 	 * @param testInstance
+	 * @param statistics receives the cache hits and misses of this call
 	 * @throws Exception 
 	 */
-	double[] calculateProbabilities(LACInstance testInstance) throws Exception
+	double[] calculateProbabilities(LACInstance testInstance, LACCacheStatistics statistics) throws Exception
 	{
-		this.cacheHits = 0;
-		this.cacheMisses = 0;
 		double[] probs;
-		double[] scores = calculateScores(testInstance);
+		double[] scores = calculateScores(testInstance, statistics);
 		
 		if(scores != null)
 		{
@@ -88,8 +146,7 @@ public class LACRules implements Serializable
 			probs = new double[allClasses.size()];
 			for (Integer clazz : allClasses) 
 			{
-				double count = trainingSet.getInstancesOfClass(clazz).size();
-				probs[clazz] = (count / ((double) trainingSet.length()));
+				probs[clazz] = trainingSet.getClassWeight(clazz) / trainingSet.getTotalWeight();
 			}
 		}
 
@@ -97,174 +154,290 @@ public class LACRules implements Serializable
 	}
 
 	/**
-	 * Calculates the scores for each class instance.
+	 * Calculates the scores for each class instance, using the scorer of the
+	 * current thread. Instances with at least {@link #parallelThreshold}
+	 * features are scored by {@link LACScoringTask}s instead, in the pool of
+	 * the current task or in the default pool of {@link LAC}. The instances
+	 * containing the features of the test instance are fetched first, in case
+	 * they are held by shards.
 	 * 
 	 * @param testInstance
-	 * @param currentClass
-	 * @return
+	 * @param statistics
+	 * @return the scores, which are overwritten by the next call on the same
+	 *         thread, or null if no rule applies to the instance
 	 * @throws Exception 
 	 */
-	private double[] calculateScores(LACInstance testInstance) throws Exception
+	private double[] calculateScores(LACInstance testInstance, LACCacheStatistics statistics) throws Exception
 	{
-		List<Integer> testInstanceFeatures = new ArrayList<Integer>();
-		testInstanceFeatures.addAll(testInstance.getIndexedFeatures());
-		Collections.sort(testInstanceFeatures);
-		
-		List<LACRule> allRulesForFeatures = new ArrayList<LACRule>(10000);
-		int[] numPatterns = {0};
-		for(int i = 0; i < testInstanceFeatures.size(); i++)
+		int numClasses = trainingSet.getAllClasses().size();
+		trainingSet.prefetch(testInstance.getIndexedFeatures(), testInstance.getNumFeatures());
+		if (parallelThreshold > 0 && testInstance.getNumFeatures() >= parallelThreshold)
 		{
-			List<Integer> featCombination = new ArrayList<Integer>();
-			featCombination.add(testInstanceFeatures.get(i));
-			extractRules(featCombination, testInstanceFeatures, allRulesForFeatures, numPatterns);
+			// a scorer of its own, as this thread may run other tasks while
+			// waiting for the ones scoring the instance
+			LACScorer loaded = new LACScorer(this, maxRuleSize);
+			loaded.load(testInstance, numClasses);
+			LACScoringTask task = new LACScoringTask(loaded, 0, loaded.getNumFeatures());
+			if (ForkJoinTask.inForkJoinPool())
+			{
+				task.invoke();
+			}
+			else
+			{
+				LAC.getDefaultPool().invoke(task);
+			}
+			statistics.add(task.getStatistics());
+			LACScorer scorer = task.getScorer();
+			return scorer.getNumRules() > 0 ? scorer.getScores() : null;
 		}
+
+		LACScorer scorer = getScorer();
+		scorer.load(testInstance, numClasses);
+		scorer.score(0, scorer.getNumFeatures(), statistics);
 		
-		int numClasses = trainingSet.getAllClasses().size();
-		double[] scores = new double[numClasses];
-		int numRules = allRulesForFeatures.size();
-		if (numRules > 0)
+		return scorer.getNumRules() > 0 ? scorer.getScores() : null;
+	}
+
+	/**
+	 * Returns the scorer of the current thread, creating it on first use.
+	 */
+	private LACScorer getScorer()
+	{
+		ThreadLocal<LACScorer> local = scorers;
+		if (local == null)
 		{
-			for (int i = 0; i < numRules; i++)
+			synchronized (this)
 			{
-				LACRule rule = allRulesForFeatures.get(i);
-				scores[rule.getPredictedClass()] = scores[rule.getPredictedClass()] + rule.getConfidence();
+				if (scorers == null)
+				{
+					scorers = new ThreadLocal<LACScorer>();
+				}
+				local = scorers;
 			}
 		}
-		else
+
+		LACScorer scorer = local.get();
+		if (scorer == null)
 		{
-			scores = null;
+			scorer = new LACScorer(this, maxRuleSize);
+			local.set(scorer);
 		}
-		
-		return scores;
+		return scorer;
 	}
 	
 	/**
-	 * Recursively generates all subsets of an array
-	 * @param numPatterns 
+	 * Gets the rules of a combination of features from the cache, extracting
+	 * and caching them if needed. A combination pruned for lack of support is
+	 * extracted again if the training set shrank enough for it to be
+	 * supported.
 	 * 
-	 * @param set
-	 * @param maxSubsetSize
-	 * @param subset
-	 * @param result
-	 * @return
+	 * @param featuresCombination a reusable key, which is copied before being
+	 *            stored
+	 * @param statistics
+	 * @return the rules packed as described in {@link LACPatternCounts}
 	 */
-	private void extractRules(List<Integer> pattern, List<Integer> testFeatures, List<LACRule> extractedRules, int[] numPatterns)
+	int[] getRules(LACPatternKey featuresCombination, LACCacheStatistics statistics)
 	{
-		numPatterns[0]++;
-		List<LACRule> rules = getRules(pattern);
-			
-		if(rules != null && rules.size() > 0)
+		int[] rulesForFeatures = cache.getRules(featuresCombination);
+		
+		if (rulesForFeatures == null
+				|| (LACPatternCounts.isPruned(rulesForFeatures) && isSupported(LACPatternCounts.bound(rulesForFeatures))))
 		{
-			extractedRules.addAll(rules);
-			
-			if(pattern.size() < maxRuleSize)
+			statistics.miss();
+			LACPatternKey key = featuresCombination.copy();
+			boolean pruned = rulesForFeatures != null;
+			rulesForFeatures = doExtractRules(key);
+			if (pruned)
 			{
-				List<List<Integer>> combinations = new ArrayList<List<Integer>>();
-				int size = testFeatures.size();
-				for (int i = 0; i < size; i++)
-				{
-					int element = testFeatures.get(i);
-					if (mustAddElement(element, pattern))
-					{
-						List<Integer> newFeatCombination = new ArrayList<Integer>(pattern.size() + 1);
-						newFeatCombination.addAll(pattern);
-						newFeatCombination.add(element);
-						combinations.add(newFeatCombination);
-					}
-				}
-				
-				int numCombinations = combinations.size();
-				for(int i = 0; i < numCombinations; i++)
-				{
-					extractRules(combinations.get(i), testFeatures, extractedRules, numPatterns);
-				}
+				// the stored bound no longer holds, and must not be kept
+				cache.replaceRules(key, rulesForFeatures);
+			}
+			else
+			{
+				cache.storeRules(key, rulesForFeatures);
 			}
+		}else{
+			statistics.hit();
+		}
+		
+		return rulesForFeatures;
+	}
+
+	/**
+	 * Returns true if a pattern contained in <code>count</code> instances may
+	 * form rules, i.e., if its support is above the minimum. Support is
+	 * anti-monotone: no pattern containing an unsupported one is supported.
+	 * 
+	 * @param count
+	 */
+	private boolean isSupported(int count)
+	{
+		return (double) count / (double) trainingSet.length() > minSupport;
+	}
+
+	/**
+	 * Returns the smallest number of instances a supported pattern may be
+	 * contained in.
+	 */
+	private int getMinSupportedCount()
+	{
+		int numInstances = trainingSet.length();
+		int count = (int) Math.max(0, Math.min(numInstances + 1L, (long) Math.floor(minSupport * numInstances) + 1));
+		// as computed by isSupported, whatever the rounding
+		while (count > 0 && isSupported(count - 1))
+		{
+			count--;
+		}
+		while (count <= numInstances && !isSupported(count))
+		{
+			count++;
 		}
+		return count;
 	}
-	
-	private List<LACRule> getRules(List<Integer> featuresCombination)
+
+	/**
+	 * Gets the weighted rules of a combination of features, as
+	 * {@link #getRules(LACPatternKey, LACCacheStatistics)} does.
+	 * 
+	 * @param featuresCombination a reusable key, which is copied before being
+	 *            stored
+	 * @param statistics
+	 * @return the sums of weights packed as described in
+	 *         {@link LACPatternCounts}
+	 */
+	double[] getWeightedRules(LACPatternKey featuresCombination, LACCacheStatistics statistics)
 	{
-		List<LACRule> rulesForFeatures = cache.getRules(featuresCombination);
-		
+		LACConcurrentCache<LACPatternKey, double[]> weighted = weightedCache;
+		double[] rulesForFeatures = weighted.get(featuresCombination);
+
 		if (rulesForFeatures == null)
 		{
-			cacheMisses++;
-			rulesForFeatures = doExtractRules(featuresCombination);
-			cache.storeRules(featuresCombination, rulesForFeatures);
+			statistics.miss();
+			LACPatternKey key = featuresCombination.copy();
+			rulesForFeatures = doExtractWeightedRules(key);
+			weighted.put(key, rulesForFeatures);
 		}else{
-			cacheHits++;
+			statistics.hit();
 		}
-		
+
 		return rulesForFeatures;
 	}
 
 	/**
-	 * Returns true is an element must be stored in the list
+	 * Returns true if a class present in <code>classCount</code> of the
+	 * <code>size</code> instances which contain a pattern forms a rule with
+	 * it.
 	 * 
-	 * @param element
-	 * @param featuresCombination
+	 * @param classCount
+	 * @param size
+	 */
+	boolean isRule(int classCount, int size)
+	{
+		double support = (double) classCount / (double) trainingSet.length();
+		double confidence = (double) classCount / (double) size;
+		return support > minSupport && confidence > minConfidence;
+	}
+
+	/**
+	 * Returns true if a class whose instances weigh <code>classWeight</code>
+	 * out of the <code>total</code> weight of the instances which contain a
+	 * pattern forms a rule with it. Support is relative to the weight of the
+	 * whole training set.
+	 * 
+	 * @param classWeight
+	 * @param total
 	 */
-	private boolean mustAddElement(int element, List<Integer> featuresCombination)
+	boolean isRule(double classWeight, double total)
 	{
-		return featuresCombination.size() < maxRuleSize && featuresCombination.get(featuresCombination.size() - 1) < element;
+		double support = classWeight / trainingSet.getTotalWeight();
+		double confidence = classWeight / total;
+		return support > minSupport && confidence > minConfidence;
 	}
 
 	/**
 	 * Extracts the applicable rules for the given combination of features.
+	 * Only the number of instances per class is kept; the support and the
+	 * confidence of each rule are computed when it is used. <br/>
+	 * A combination is pruned, with the whole subtree of combinations
+	 * extending it, as soon as it is known to be contained in too few
+	 * instances to be supported: when a combination without one of its
+	 * features was pruned or counted too few instances, or when one of the
+	 * sets to be intersected is too small. Only the resulting bound is
+	 * cached.
 	 * 
 	 * @param featuresCombination
+	 * @return the rules packed as described in {@link LACPatternCounts}
 	 */
-	private List<LACRule> doExtractRules(List<Integer> featuresCombination)
+	private int[] doExtractRules(LACPatternKey featuresCombination)
 	{
-		List<LACRule> rules = new ArrayList<LACRule>();
+		int minCount = getMinSupportedCount();
+		int numFeatures = featuresCombination.length();
+		if (minCount > 1 && numFeatures > 2)
+		{
+			for (int i = 0; i < numFeatures; i++)
+			{
+				int[] subset = cache.getRules(featuresCombination.without(i));
+				if (subset != null && LACPatternCounts.bound(subset) < minCount)
+				{
+					return LACPatternCounts.pruned(LACPatternCounts.bound(subset));
+				}
+			}
+		}
+
+		LACInstanceSet instancesWithFeatures = trainingSet.getInstancesWithFeatures(featuresCombination, minCount);
+		if (instancesWithFeatures == null)
+		{
+			return LACPatternCounts.pruned(minCount - 1);
+		}
+		int size = instancesWithFeatures.size();
+		if (size == 0)
+		{
+			return LACPatternCounts.EMPTY;
+		}
 
-		List<Integer> instancesWithFeatures = trainingSet.getInstancesWithFeatures(featuresCombination);
 		int numClasses = trainingSet.getAllClasses().size();
 		int[] count = new int[numClasses];
+		trainingSet.countClasses(instancesWithFeatures, count);
 
-		int size = instancesWithFeatures.size();
-
-		if (size > 0)
+		if(debug)
 		{
-			for (int i = 0; i < size; i++)
-			{
-				Integer instanceIndex = instancesWithFeatures.get(i);
-				LACInstance instance = trainingSet.getInstance(instanceIndex);
-				int predictedClass = instance.getIndexedClass();
-				count[predictedClass] = count[predictedClass] + 1;
-			}
-
 			for (int i = 0; i < numClasses; i++)
 			{
-				int classCount = count[i];
-				if (classCount > 0)
+				if (count[i] > 0 && isRule(count[i], size))
 				{
-					double support = (double) classCount / (double) trainingSet.length();
-					double confidence = (double) classCount / (double) size;
-
-					if(support > minSupport && confidence > minConfidence)
-					{
-						LACRule rule = new LACRule(support, confidence, i);
-						if(debug)
-						{
-							rule.setPattern(trainingSet.indexesToLabels(featuresCombination));
-							rule.setClassLabel(trainingSet.getClassByIndex(i).getLabel());
-							System.out.println(rule);
-						}
-						rules.add(rule);
-					}
+					double support = (double) count[i] / (double) trainingSet.length();
+					double confidence = (double) count[i] / (double) size;
+					LACRule rule = new LACRule(support, confidence, i);
+					rule.setPattern(trainingSet.indexesToLabels(featuresCombination));
+					rule.setClassLabel(trainingSet.getClassByIndex(i).getLabel());
+					System.out.println(rule);
 				}
 			}
 		}
 
-		return rules;
-	}
-	
-	int getCacheMisses(){
-		return this.cacheMisses;
+		return LACPatternCounts.pack(size, count);
 	}
-	
-	int getCacheHits(){
-		return this.cacheHits;
+
+	/**
+	 * Extracts the applicable rules for the given combination of features,
+	 * summing up the weights of the instances of each class instead of
+	 * counting them. Weights only differ from the ones summed later by a
+	 * common factor, so the sums remain valid as time passes.
+	 * 
+	 * @param featuresCombination
+	 * @return the sums of weights packed as described in
+	 *         {@link LACPatternCounts}
+	 */
+	private double[] doExtractWeightedRules(LACPatternKey featuresCombination)
+	{
+		LACInstanceSet instancesWithFeatures = trainingSet.getInstancesWithFeatures(featuresCombination);
+		if (instancesWithFeatures.size() == 0)
+		{
+			return LACPatternCounts.EMPTY_WEIGHTS;
+		}
+
+		double[] weight = new double[trainingSet.getAllClasses().size()];
+		double total = trainingSet.weighClasses(instancesWithFeatures, weight);
+		return LACPatternCounts.pack(total, weight);
 	}
-}
\ No newline at end of file
+}
@@ -11,10 +11,12 @@
 package weka.classifiers.rules;
 
 import java.io.Serializable;
-import java.util.List;
+import java.util.BitSet;
 
 /**
- * A cache to store the extracted associative rules
+ * A cache to store the extracted associative rules. Rules are kept in the
+ * compact form described in {@link LACPatternCounts}. It can be shared by
+ * threads classifying instances at the same time.
  * 
  * @author Adriano Veloso (algorithm and original C++ implementation)
  * @author Gesse Dafe (Java implementation)
@@ -23,28 +25,74 @@ public class LACRulesCache implements Serializable
 {
 	private static final long serialVersionUID = -1340440155675141479L;
 
-	private LACLRU<List<Integer>, List<LACRule>> rulesPerFeatures = new LACLRU<List<Integer>, List<LACRule>>(50000);
+	/**
+	 * Number of combinations of features cached when no capacity is given.
+	 */
+	static final int DEFAULT_CAPACITY = 50000;
+
+	private final LACConcurrentCache<LACPatternKey, int[]> rulesPerFeatures;
+
+	/**
+	 * @param capacity maximum number of cached combinations of features
+	 */
+	LACRulesCache(int capacity)
+	{
+		rulesPerFeatures = new LACConcurrentCache<LACPatternKey, int[]>(capacity);
+	}
 
 	/**
 	 * Gets all rules that are applicable to instances that have the given
-	 * combination of features.
+	 * combination of features, as packed by {@link LACPatternCounts}.
 	 * 
 	 * @param featuresCombination
 	 */
-	List<LACRule> getRules(List<Integer> featuresCombination)
+	int[] getRules(LACPatternKey featuresCombination)
 	{
 		return rulesPerFeatures.get(featuresCombination);
 	}
 
 	/**
-	 * Stores a list of rules that are applicable to a given combination of
-	 * features
+	 * @return the maximum number of cached combinations of features
+	 */
+	int getCapacity()
+	{
+		return rulesPerFeatures.capacity();
+	}
+
+	/**
+	 * Removes the rules of the combinations which contain at least one of the
+	 * given features.
+	 * 
+	 * @param features
+	 * @return the number of combinations removed
+	 */
+	int invalidate(BitSet features)
+	{
+		return rulesPerFeatures.removeIf(LACPatternKey.containingAny(features));
+	}
+
+	/**
+	 * Stores the rules that are applicable to a given combination of
+	 * features, as packed by {@link LACPatternCounts}. The key must not change
+	 * afterwards.
 	 * 
 	 * @param featuresCombination
 	 * @param rulesForClass
 	 */
-	public void storeRules(List<Integer> featureCombinations, List<LACRule> rulesForClass)
+	void storeRules(LACPatternKey featureCombinations, int[] rulesForClass)
 	{
 		rulesPerFeatures.put(featureCombinations, rulesForClass);
 	}
+
+	/**
+	 * Stores the rules of a combination of features, replacing the ones
+	 * already stored, e.g. a pruned bound which no longer holds.
+	 * 
+	 * @param featuresCombination
+	 * @param rulesForClass
+	 */
+	void replaceRules(LACPatternKey featuresCombination, int[] rulesForClass)
+	{
+		rulesPerFeatures.replace(featuresCombination, rulesForClass);
+	}
 }
\ No newline at end of file
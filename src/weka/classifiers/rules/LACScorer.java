@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.Arrays;
+
+/**
+ * Enumerates the combinations of features of a test instance and sums up the
+ * confidence of their rules per class. <br/>
+ * Combinations are explored depth first, with an explicit stack bounded by the
+ * maximum rule size instead of recursion, and scores are accumulated directly
+ * into an array. All buffers belong to the scorer and are reused, so once they
+ * have grown to the size of the largest instance, scoring allocates nothing
+ * besides the rules extracted on cache misses. A scorer must be used by a
+ * single thread.
+ */
+final class LACScorer
+{
+	private final LACRules rules;
+	private final int maxRuleSize;
+	private final LACPatternKey probe = new LACPatternKey();
+
+	private int[] features = new int[64];
+	private int numFeatures;
+	private final int[] pattern;
+	private final int[] cursor;
+	private double[] scores = new double[0];
+	private int numRules;
+
+	/**
+	 * @param rules
+	 * @param maxRuleSize the maximum number of features in a rule
+	 */
+	LACScorer(LACRules rules, int maxRuleSize)
+	{
+		this.rules = rules;
+		this.maxRuleSize = maxRuleSize;
+		this.pattern = new int[Math.max(1, maxRuleSize)];
+		this.cursor = new int[Math.max(1, maxRuleSize)];
+	}
+
+	/**
+	 * Prepares the scorer for a new test instance, sorting its features and
+	 * clearing the scores.
+	 *
+	 * @param testInstance
+	 * @param numClasses
+	 */
+	void load(LACInstance testInstance, int numClasses)
+	{
+		numFeatures = testInstance.getNumFeatures();
+		if (features.length < numFeatures)
+		{
+			features = new int[Math.max(numFeatures, features.length * 2)];
+		}
+		System.arraycopy(testInstance.getIndexedFeatures(), 0, features, 0, numFeatures);
+		Arrays.sort(features, 0, numFeatures);
+
+		if (scores.length != numClasses)
+		{
+			scores = new double[numClasses];
+		}
+		else
+		{
+			Arrays.fill(scores, 0.0);
+		}
+		numRules = 0;
+	}
+
+	/**
+	 * Returns a scorer for the instance loaded in this one, with scores of its
+	 * own. The sorted features are shared, so this scorer must not be loaded
+	 * again while the returned one is in use; both may score disjoint ranges
+	 * of combinations in different threads.
+	 */
+	LACScorer fork()
+	{
+		LACScorer result = new LACScorer(rules, maxRuleSize);
+		result.features = features;
+		result.numFeatures = numFeatures;
+		result.scores = new double[scores.length];
+		return result;
+	}
+
+	/**
+	 * Adds the scores and rules of another scorer to the ones of this scorer.
+	 *
+	 * @param other
+	 */
+	void merge(LACScorer other)
+	{
+		for (int i = 0; i < scores.length; i++)
+		{
+			scores[i] += other.scores[i];
+		}
+		numRules += other.numRules;
+	}
+
+	/**
+	 * @return the number of features of the loaded instance
+	 */
+	int getNumFeatures()
+	{
+		return numFeatures;
+	}
+
+	/**
+	 * Scores all combinations of features which start with one of the sorted
+	 * features in positions <code>[from, to)</code>.
+	 *
+	 * @param from
+	 * @param to
+	 * @param statistics
+	 */
+	void score(int from, int to, LACCacheStatistics statistics)
+	{
+		for (int first = from; first < to; first++)
+		{
+			pattern[0] = features[first];
+			if (!addRules(1, statistics) || maxRuleSize <= 1)
+			{
+				continue;
+			}
+
+			int depth = 0;
+			cursor[0] = next(first);
+			while (depth >= 0)
+			{
+				if (cursor[depth] >= numFeatures)
+				{
+					depth--;
+					continue;
+				}
+
+				int current = cursor[depth]++;
+				pattern[depth + 1] = features[current];
+				if (addRules(depth + 2, statistics) && depth + 2 < maxRuleSize)
+				{
+					depth++;
+					cursor[depth] = next(current);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the first sorted feature greater than the one
+	 * at the given position.
+	 *
+	 * @param position
+	 */
+	private int next(int position)
+	{
+		int feature = features[position];
+		int result = position + 1;
+		while (result < numFeatures && features[result] == feature)
+		{
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the confidence of the rules of the first <code>length</code>
+	 * features of the current pattern to the scores.
+	 *
+	 * @param length
+	 * @param statistics
+	 * @return true if the pattern has rules, so it must be expanded
+	 */
+	private boolean addRules(int length, LACCacheStatistics statistics)
+	{
+		if (rules.isWeighted())
+		{
+			return addWeightedRules(length, statistics);
+		}
+		int[] counts = rules.getRules(probe.set(pattern, length), statistics);
+		int total = LACPatternCounts.total(counts);
+		int numClasses = LACPatternCounts.numClasses(counts);
+		int numPatternRules = 0;
+		for (int i = 0; i < numClasses; i++)
+		{
+			int classCount = LACPatternCounts.countAt(counts, i);
+			if (rules.isRule(classCount, total))
+			{
+				scores[LACPatternCounts.classAt(counts, i)] += (double) classCount / (double) total;
+				numPatternRules++;
+			}
+		}
+		numRules += numPatternRules;
+		return numPatternRules > 0;
+	}
+
+	/**
+	 * Adds the confidence of the weighted rules of the first
+	 * <code>length</code> features of the current pattern to the scores.
+	 *
+	 * @param length
+	 * @param statistics
+	 * @return true if the pattern has rules, so it must be expanded
+	 */
+	private boolean addWeightedRules(int length, LACCacheStatistics statistics)
+	{
+		double[] weights = rules.getWeightedRules(probe.set(pattern, length), statistics);
+		double total = LACPatternCounts.total(weights);
+		int numClasses = LACPatternCounts.numClasses(weights);
+		int numPatternRules = 0;
+		for (int i = 0; i < numClasses; i++)
+		{
+			double classWeight = LACPatternCounts.weightAt(weights, i);
+			if (rules.isRule(classWeight, total))
+			{
+				scores[LACPatternCounts.classAt(weights, i)] += classWeight / total;
+				numPatternRules++;
+			}
+		}
+		numRules += numPatternRules;
+		return numPatternRules > 0;
+	}
+
+	/**
+	 * @return the accumulated score of each class. The array is reused by the
+	 *         next instance.
+	 */
+	double[] getScores()
+	{
+		return scores;
+	}
+
+	/**
+	 * @return the number of rules that contributed to the scores
+	 */
+	int getNumRules()
+	{
+		return numRules;
+	}
+}
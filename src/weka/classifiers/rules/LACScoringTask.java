@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores the combinations of features of a single test instance in parallel.
+ * The combinations starting with the sorted features in a range of positions
+ * are split in halves, down to the ones starting with a single feature, so
+ * that the first features, whose combinations are the most numerous, do not
+ * hold back the others. Each leaf accumulates scores and cache statistics of
+ * its own, which are summed up from left to right, so the result does not
+ * depend on how tasks were scheduled.
+ */
+final class LACScoringTask extends RecursiveAction
+{
+	private static final long serialVersionUID = -2814357946207163170L;
+
+	private final LACScorer loaded;
+	private final int from;
+	private final int to;
+	private LACScorer scorer;
+	private LACCacheStatistics statistics;
+
+	/**
+	 * @param loaded
+	 *            a scorer loaded with the test instance, which is only read
+	 * @param from
+	 *            position of the first sorted feature starting combinations
+	 * @param to
+	 *            position after the last one
+	 */
+	LACScoringTask(LACScorer loaded, int from, int to)
+	{
+		this.loaded = loaded;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute()
+	{
+		if (to - from <= 1)
+		{
+			scorer = loaded.fork();
+			statistics = new LACCacheStatistics();
+			scorer.score(from, to, statistics);
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		LACScoringTask left = new LACScoringTask(loaded, from, middle);
+		LACScoringTask right = new LACScoringTask(loaded, middle, to);
+		invokeAll(left, right);
+		scorer = left.scorer;
+		scorer.merge(right.scorer);
+		statistics = left.statistics;
+		statistics.add(right.statistics);
+	}
+
+	/**
+	 * @return the scorer holding the scores of all combinations of the range,
+	 *         once the task is done
+	 */
+	LACScorer getScorer()
+	{
+		return scorer;
+	}
+
+	/**
+	 * @return the cache hits and misses of all combinations of the range,
+	 *         once the task is done
+	 */
+	LACCacheStatistics getStatistics()
+	{
+		return statistics;
+	}
+}
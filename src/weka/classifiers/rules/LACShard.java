@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * The instances containing the features of a range, one of the shards a
+ * model's {@link LACFeatureOccurrences} are partitioned into. Features are
+ * split into consecutive ranges holding about as many instances each, so
+ * every shard takes about the same memory, and a shard is read from the model
+ * without reading the others. The ranges only depend on the model and the
+ * number of shards, so they are computed the same way by the shards and by
+ * the classifier fetching from them.
+ */
+final class LACShard
+{
+	private final int first;
+	private final LACPostingList[] postings;
+
+	/**
+	 * @param first
+	 *            the first feature of the range
+	 * @param postings
+	 *            the instances containing each feature of the range, in order
+	 */
+	LACShard(int first, LACPostingList[] postings)
+	{
+		this.first = first;
+		this.postings = postings;
+	}
+
+	/**
+	 * Splits features into ranges holding about as many instances each.
+	 *
+	 * @param offsets
+	 *            the offset of the instances of each feature, followed by the
+	 *            end of the last one
+	 * @param numFeatures
+	 * @param numShards
+	 * @return the first feature of each range, followed by the number of
+	 *         features
+	 */
+	static int[] partition(IntBuffer offsets, int numFeatures, int numShards)
+	{
+		int[] bounds = new int[numShards + 1];
+		long total = offsets.get(numFeatures);
+		int feature = 0;
+		for (int shard = 1; shard < numShards; shard++)
+		{
+			long target = total * shard / numShards;
+			while (feature < numFeatures && offsets.get(feature) < target)
+			{
+				feature++;
+			}
+			bounds[shard] = feature;
+		}
+		bounds[numShards] = numFeatures;
+		return bounds;
+	}
+
+	/**
+	 * @return the first feature of the range
+	 */
+	int getFirst()
+	{
+		return first;
+	}
+
+	/**
+	 * @return the feature after the last one of the range
+	 */
+	int getLast()
+	{
+		return first + postings.length;
+	}
+
+	/**
+	 * Gets the instances containing a feature of the range.
+	 *
+	 * @param feature
+	 * @throws IOException
+	 *             if the feature is not in the range
+	 */
+	LACPostingList get(int feature) throws IOException
+	{
+		if (feature < first || feature >= getLast())
+		{
+			throw new IOException("Feature " + feature + " is not in shard [" + first + ", " + getLast() + ")");
+		}
+		return postings[feature - first];
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Serves one shard of a model to the classifiers mapping it with
+ * {@link LAC#mapModel(java.nio.channels.FileChannel, java.util.List)}.
+ *
+ * Usage: LACShardServer model_file shard num_shards [port]
+ *
+ * The shard is read into the heap, so a server takes about
+ * <code>1 / num_shards</code> of the memory of the instances containing the
+ * features of the model. Once ready, the server prints the port it listens
+ * on, any free one if no port is given, on a line of its own. Each connection
+ * is served by a thread of its own, and carries requests and replies of big
+ * endian ints:
+ *
+ * <pre>
+ * request:  int count, int[count] features of the shard
+ * reply:    for each feature, int size, int[size] sorted instances containing it
+ * </pre>
+ *
+ * A whole request is read before it is replied to. A connection is closed at
+ * the first invalid request.
+ */
+public final class LACShardServer
+{
+	private final LACShard shard;
+
+	/**
+	 * @param shard
+	 *            the shard to serve, as read by
+	 *            {@link LACModelReader#readShard(int, int)}
+	 */
+	LACShardServer(LACShard shard)
+	{
+		this.shard = shard;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: LACShardServer model_file shard num_shards [port]");
+			System.exit(1);
+		}
+		int index = Integer.parseInt(args[1]);
+		int numShards = Integer.parseInt(args[2]);
+		int port = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		LACShard shard;
+		FileInputStream file = new FileInputStream(args[0]);
+		try
+		{
+			shard = new LACModelReader(file.getChannel()).readShard(index, numShards);
+		}
+		finally
+		{
+			file.close();
+		}
+
+		ServerSocket server = new ServerSocket(port);
+		System.out.println(server.getLocalPort());
+		System.out.flush();
+		new LACShardServer(shard).serve(server);
+	}
+
+	/**
+	 * Serves the shard to the connections accepted by a server socket, until
+	 * it is closed.
+	 *
+	 * @param server
+	 * @throws IOException
+	 *             once the server socket is closed
+	 */
+	void serve(ServerSocket server) throws IOException
+	{
+		while (true)
+		{
+			final Socket socket = server.accept();
+			Thread thread = new Thread("shard " + shard.getFirst() + " connection " + socket.getRemoteSocketAddress())
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						serve(socket);
+					}
+					catch (IOException e)
+					{
+						System.err.println(getName() + ": " + e.getMessage());
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) throws IOException
+	{
+		try
+		{
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			int[] features = new int[0];
+			while (true)
+			{
+				int count;
+				try
+				{
+					count = in.readInt();
+				}
+				catch (EOFException e)
+				{
+					return;
+				}
+				if (count < 0 || count > shard.getLast() - shard.getFirst())
+				{
+					throw new IOException("Invalid count: " + count);
+				}
+				if (features.length < count)
+				{
+					features = new int[count];
+				}
+				for (int i = 0; i < count; i++)
+				{
+					features[i] = in.readInt();
+				}
+
+				for (int i = 0; i < count; i++)
+				{
+					LACPostingList list = shard.get(features[i]);
+					out.writeInt(list.size());
+					for (int j = 0; j < list.size(); j++)
+					{
+						out.writeInt(list.get(j));
+					}
+				}
+				out.flush();
+			}
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+}
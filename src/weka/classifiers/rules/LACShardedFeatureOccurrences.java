@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * {@link LACFeatureOccurrences} whose instances are held by shards, each
+ * owning a range of features, instead of the heap. Before a test instance is
+ * scored, the instances containing its features are fetched by
+ * {@link #prefetch(int[], int)}: the request for each shard is sent to all of
+ * them before any reply is read, so shards look their lists up at the same
+ * time. Fetched lists are cached, the most recently used ones being kept, as
+ * many as intersections, which are computed and cached as usual. A list
+ * evicted while an instance is scored is fetched again on its own. <br/>
+ * The map cannot be updated, and lists are never stored as bitmaps.
+ */
+final class LACShardedFeatureOccurrences extends LACFeatureOccurrences
+{
+	private static final long serialVersionUID = 3311408466716250437L;
+
+	private final int[] bounds;
+	private final transient LACRemoteShard[] shards;
+	private LACConcurrentCache<Integer, LACPostingList> fetched = new LACConcurrentCache<Integer, LACPostingList>(
+			DEFAULT_CACHE_CAPACITY);
+
+	/**
+	 * @param bounds
+	 *            the ranges of features of the shards, as returned by
+	 *            {@link LACShard#partition(java.nio.IntBuffer, int, int)}
+	 * @param shards
+	 *            the shards, in order
+	 */
+	LACShardedFeatureOccurrences(int[] bounds, LACRemoteShard[] shards)
+	{
+		this.bounds = bounds;
+		this.shards = shards;
+	}
+
+	/**
+	 * Replaces the caches of intersections and of fetched lists by empty ones
+	 * with the given capacity.
+	 * 
+	 * @param capacity
+	 */
+	@Override
+	void setCacheCapacity(int capacity)
+	{
+		super.setCacheCapacity(capacity);
+		this.fetched = new LACConcurrentCache<Integer, LACPostingList>(capacity);
+	}
+
+	@Override
+	void setMode(Mode mode)
+	{
+		// lists are used as they are fetched
+	}
+
+	@Override
+	boolean isUpdatable()
+	{
+		return false;
+	}
+
+	@Override
+	BitSet append(List<LACInstance> added, int first)
+	{
+		throw new UnsupportedOperationException("A sharded model cannot be updated");
+	}
+
+	@Override
+	void useRings()
+	{
+		throw new UnsupportedOperationException("A sharded model cannot slide");
+	}
+
+	@Override
+	void prefetch(int[] features, int count) throws IOException
+	{
+		int[] missing = new int[count];
+		int numMissing = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (fetched.get(features[i]) == null)
+			{
+				missing[numMissing++] = features[i];
+			}
+		}
+		if (numMissing == 0)
+		{
+			return;
+		}
+
+		Arrays.sort(missing, 0, numMissing);
+		int distinct = 0;
+		for (int i = 0; i < numMissing; i++)
+		{
+			if (distinct == 0 || missing[i] != missing[distinct - 1])
+			{
+				missing[distinct++] = missing[i];
+			}
+		}
+		fetch(missing, distinct);
+	}
+
+	@Override
+	LACInstanceSet instancesWithFeature(int featureIndex)
+	{
+		if (featureIndex < 0 || featureIndex >= bounds[bounds.length - 1])
+		{
+			return LACPostingList.EMPTY;
+		}
+		LACPostingList instances = fetched.get(featureIndex);
+		if (instances == null)
+		{
+			try
+			{
+				instances = fetch(new int[] { featureIndex }, 1)[0];
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException("Cannot fetch the instances of feature " + featureIndex, e);
+			}
+		}
+		return instances;
+	}
+
+	/**
+	 * Fetches the instances containing the given features from their shards
+	 * and caches them.
+	 *
+	 * @param features
+	 *            distinct features, in ascending order
+	 * @param count
+	 *            the number of features
+	 * @return the instances containing each feature
+	 */
+	private LACPostingList[] fetch(int[] features, int count) throws IOException
+	{
+		LACPostingList[] lists = new LACPostingList[count];
+		LACRemoteShard.Connection[] connections = new LACRemoteShard.Connection[shards.length];
+		int[] starts = new int[shards.length + 1];
+		try
+		{
+			int from = 0;
+			for (int shard = 0; shard < shards.length; shard++)
+			{
+				starts[shard] = from;
+				int to = from;
+				while (to < count && features[to] < bounds[shard + 1])
+				{
+					to++;
+				}
+				if (to > from)
+				{
+					connections[shard] = shards[shard].acquire();
+					connections[shard].send(features, from, to);
+				}
+				from = to;
+			}
+			starts[shards.length] = from;
+
+			for (int shard = 0; shard < shards.length; shard++)
+			{
+				if (connections[shard] != null)
+				{
+					connections[shard].receive(lists, starts[shard], starts[shard + 1]);
+					shards[shard].release(connections[shard]);
+					connections[shard] = null;
+				}
+			}
+		}
+		finally
+		{
+			for (LACRemoteShard.Connection connection : connections)
+			{
+				if (connection != null)
+				{
+					connection.close();
+				}
+			}
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			fetched.put(features[i], lists[i]);
+		}
+		return lists;
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Splits text in the LAC format into lines and space separated tokens, working
+ * on the raw bytes of the input. Lines end with <code>\n</code> or
+ * <code>\r\n</code>, and empty lines are skipped. <br/>
+ * The current token is exposed as a slice of an internal byte array, valid
+ * until the next line is read, so that tokens can be looked up without
+ * creating any String. The input is read as UTF-8.
+ */
+final class LACTokenizer
+{
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer source;
+
+	private byte[] buffer;
+	private ByteBuffer view;
+	private int limit;
+	private boolean eof;
+
+	private int next;
+	private int lineStart;
+	private int lineEnd;
+	private int cursor;
+	private int tokenStart;
+	private int tokenEnd;
+	private long lineNumber;
+
+	/**
+	 * Creates a tokenizer reading from a channel. The channel is not closed.
+	 *
+	 * @param channel
+	 */
+	LACTokenizer(ReadableByteChannel channel)
+	{
+		this.channel = channel;
+		this.source = null;
+		setBuffer(new byte[DEFAULT_BUFFER_SIZE]);
+	}
+
+	/**
+	 * Creates a tokenizer reading the remaining bytes of a buffer.
+	 *
+	 * @param source
+	 */
+	LACTokenizer(ByteBuffer source)
+	{
+		this.channel = null;
+		this.source = source;
+		setBuffer(new byte[Math.max(1, Math.min(DEFAULT_BUFFER_SIZE, source.remaining()))]);
+	}
+
+	private void setBuffer(byte[] buffer)
+	{
+		this.buffer = buffer;
+		this.view = ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Moves to the next non-empty line.
+	 *
+	 * @return false if the input has no more lines
+	 * @throws IOException
+	 */
+	boolean nextLine() throws IOException
+	{
+		while (true)
+		{
+			int start = next;
+			int end = find((byte) '\n', start);
+			while (end < 0)
+			{
+				if (eof)
+				{
+					if (start == limit)
+					{
+						return false;
+					}
+					end = limit;
+					break;
+				}
+				int scanned = limit - start;
+				start = compact(start);
+				fill();
+				end = find((byte) '\n', start + scanned);
+			}
+
+			next = end < limit ? end + 1 : end;
+			if (end > start && buffer[end - 1] == '\r')
+			{
+				end--;
+			}
+			lineNumber++;
+			if (end > start)
+			{
+				lineStart = start;
+				lineEnd = end;
+				cursor = start;
+				return true;
+			}
+		}
+	}
+
+	private int find(byte b, int from)
+	{
+		for (int i = from; i < limit; i++)
+		{
+			if (buffer[i] == b)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves the bytes from <code>start</code> on to the beginning of the
+	 * buffer, growing it if it is full.
+	 *
+	 * @return the new position of <code>start</code>
+	 */
+	private int compact(int start)
+	{
+		int length = limit - start;
+		if (length == buffer.length)
+		{
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, start, grown, 0, length);
+			setBuffer(grown);
+		}
+		else
+		{
+			System.arraycopy(buffer, start, buffer, 0, length);
+		}
+		limit = length;
+		next = 0;
+		return 0;
+	}
+
+	private void fill() throws IOException
+	{
+		if (channel != null)
+		{
+			view.limit(buffer.length).position(limit);
+			int read;
+			do
+			{
+				read = channel.read(view);
+			}
+			while (read == 0);
+
+			if (read < 0)
+			{
+				eof = true;
+			}
+			else
+			{
+				limit += read;
+			}
+		}
+		else
+		{
+			int read = Math.min(source.remaining(), buffer.length - limit);
+			source.get(buffer, limit, read);
+			limit += read;
+			eof = !source.hasRemaining();
+		}
+	}
+
+	/**
+	 * Moves to the next token of the current line. Consecutive spaces delimit
+	 * empty tokens.
+	 *
+	 * @return false if the line has no more tokens
+	 */
+	boolean nextToken()
+	{
+		if (cursor > lineEnd)
+		{
+			return false;
+		}
+		int i = cursor;
+		while (i < lineEnd && buffer[i] != ' ')
+		{
+			i++;
+		}
+		tokenStart = cursor;
+		tokenEnd = i;
+		cursor = i + 1;
+		return true;
+	}
+
+	/**
+	 * Returns true if the current line contains the given bytes.
+	 *
+	 * @param bytes
+	 */
+	boolean lineContains(byte[] bytes)
+	{
+		for (int i = lineStart; i + bytes.length <= lineEnd; i++)
+		{
+			int j = 0;
+			while (j < bytes.length && buffer[i + j] == bytes[j])
+			{
+				j++;
+			}
+			if (j == bytes.length)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the current token is empty or made only of white space.
+	 */
+	boolean isBlankToken()
+	{
+		for (int i = tokenStart; i < tokenEnd; i++)
+		{
+			if ((buffer[i] & 0xff) > ' ')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the current token is the given ASCII character.
+	 *
+	 * @param c
+	 */
+	boolean tokenIs(char c)
+	{
+		return tokenEnd - tokenStart == 1 && buffer[tokenStart] == c;
+	}
+
+	/**
+	 * @return the array holding the current token
+	 */
+	byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * @return the offset of the current token in {@link #getBuffer()}
+	 */
+	int getTokenStart()
+	{
+		return tokenStart;
+	}
+
+	/**
+	 * @return the length in bytes of the current token
+	 */
+	int getTokenLength()
+	{
+		return tokenEnd - tokenStart;
+	}
+
+	/**
+	 * Decodes the current token.
+	 */
+	String getToken()
+	{
+		return new String(buffer, tokenStart, tokenEnd - tokenStart, CHARSET);
+	}
+
+	/**
+	 * @return the number of the current line, counting from 1
+	 */
+	long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * Fails because the current line is malformed.
+	 *
+	 * @param message
+	 * @throws IOException
+	 */
+	void fail(String message) throws IOException
+	{
+		throw new IOException(message + " at line " + lineNumber);
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The instances of a training set which slides over a stream: the last
+ * <code>maxInstances</code> instances, the ones added less than
+ * <code>maxAge</code> time units ago, or both. Instances are numbered in the
+ * order they are added, so the window always holds a range of consecutive
+ * instances, whose features and times are kept in ring buffers until they
+ * expire, and may be renumbered from time to time so that numbers do not
+ * overflow. <br/>
+ * With a decay rate, an instance added at time <code>t</code> weighs
+ * <code>exp(rate * (t - reference))</code>. Since time affects all weights
+ * by the same factor, sums of weights cached before time passes give the same
+ * confidence and support afterwards. When weights grow too large, the
+ * reference time is moved forward and all weights are scaled down.
+ */
+final class LACWindow implements Serializable
+{
+	private static final long serialVersionUID = 1932648807712063165L;
+
+	/**
+	 * Weights are scaled down before the exponent of the newest one exceeds
+	 * this value, far from overflowing sums of doubles.
+	 */
+	private static final double MAX_EXPONENT = 500;
+
+	private final int maxInstances;
+	private final long maxAge;
+	private final double decayRate;
+
+	private int[][] features = new int[16][];
+	private long[] times = new long[16];
+	private double[] weights;
+	private int first;
+	private int size;
+	private long now;
+	private long reference;
+	private double totalWeight;
+	private double[] classWeights = new double[0];
+
+	/**
+	 * @param maxInstances
+	 *            maximum number of instances, or 0 for no limit
+	 * @param maxAge
+	 *            instances added this many time units ago or earlier expire,
+	 *            or 0 for no limit
+	 * @param decayRate
+	 *            rate at which the weight of instances decays per time unit,
+	 *            or 0 for instances of equal weight
+	 */
+	LACWindow(int maxInstances, long maxAge, double decayRate)
+	{
+		this.maxInstances = maxInstances;
+		this.maxAge = maxAge;
+		this.decayRate = decayRate;
+		if (decayRate > 0)
+		{
+			this.weights = new double[16];
+		}
+	}
+
+	/**
+	 * Adds an instance to the end of the window, at the current time.
+	 *
+	 * @param instanceFeatures
+	 *            the indexes of its features
+	 * @param clazz
+	 *            the index of its class, or -1
+	 */
+	void add(int[] instanceFeatures, int clazz)
+	{
+		if (size == times.length)
+		{
+			grow();
+		}
+		int slot = (first + size) & (times.length - 1);
+		features[slot] = instanceFeatures;
+		times[slot] = now;
+		if (weights != null)
+		{
+			double weight = Math.exp(decayRate * (now - reference));
+			weights[slot] = weight;
+			totalWeight += weight;
+			if (clazz >= 0)
+			{
+				if (clazz >= classWeights.length)
+				{
+					classWeights = Arrays.copyOf(classWeights, clazz + 1);
+				}
+				classWeights[clazz] += weight;
+			}
+		}
+		size++;
+	}
+
+	private void grow()
+	{
+		move(times.length * 2, 0);
+	}
+
+	/**
+	 * Renumbers the instances of the window, subtracting the given number
+	 * from each.
+	 *
+	 * @param delta
+	 *            at most the oldest instance of the window
+	 */
+	void renumber(int delta)
+	{
+		move(times.length, delta);
+	}
+
+	/**
+	 * Moves the instances to ring buffers of the given capacity, where each
+	 * one is found by its number minus <code>delta</code>.
+	 */
+	private void move(int capacity, int delta)
+	{
+		int[][] movedFeatures = new int[capacity][];
+		long[] movedTimes = new long[capacity];
+		double[] movedWeights = weights != null ? new double[capacity] : null;
+		for (int instance = first; instance < first + size; instance++)
+		{
+			int from = instance & (times.length - 1);
+			int to = (instance - delta) & (capacity - 1);
+			movedFeatures[to] = features[from];
+			movedTimes[to] = times[from];
+			if (weights != null)
+			{
+				movedWeights[to] = weights[from];
+			}
+		}
+		features = movedFeatures;
+		times = movedTimes;
+		weights = movedWeights;
+		first -= delta;
+	}
+
+	/**
+	 * @return true if the oldest instance of the window must expire
+	 */
+	boolean isFirstExpired()
+	{
+		if (size == 0)
+		{
+			return false;
+		}
+		return (maxInstances > 0 && size > maxInstances)
+				|| (maxAge > 0 && now - times[first & (times.length - 1)] >= maxAge);
+	}
+
+	/**
+	 * Removes the oldest instance of the window.
+	 *
+	 * @param clazz
+	 *            the index of its class, or -1
+	 */
+	void removeFirst(int clazz)
+	{
+		int slot = first & (times.length - 1);
+		if (weights != null)
+		{
+			totalWeight -= weights[slot];
+			if (clazz >= 0)
+			{
+				classWeights[clazz] -= weights[slot];
+			}
+		}
+		features[slot] = null;
+		first++;
+		size--;
+		if (size == 0)
+		{
+			totalWeight = 0;
+			Arrays.fill(classWeights, 0);
+		}
+	}
+
+	/**
+	 * Moves the current time forward.
+	 *
+	 * @param time
+	 * @return true if weights were scaled down, which invalidates sums of
+	 *         weights computed before
+	 * @throws IllegalArgumentException
+	 *             if the given time is before the current one
+	 */
+	boolean setTime(long time)
+	{
+		if (time < now)
+		{
+			throw new IllegalArgumentException("Time cannot go back from " + now + " to " + time);
+		}
+		now = time;
+		if (weights == null || decayRate * (now - reference) <= MAX_EXPONENT)
+		{
+			return false;
+		}
+
+		double scale = Math.exp(-decayRate * (now - reference));
+		reference = now;
+		totalWeight = 0;
+		for (int i = 0; i < classWeights.length; i++)
+		{
+			classWeights[i] *= scale;
+		}
+		for (int instance = first; instance < first + size; instance++)
+		{
+			int slot = instance & (times.length - 1);
+			weights[slot] *= scale;
+			totalWeight += weights[slot];
+		}
+		return true;
+	}
+
+	/**
+	 * @return the oldest instance of the window
+	 */
+	int getFirst()
+	{
+		return first;
+	}
+
+	/**
+	 * @return the number of instances in the window
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the current time
+	 */
+	long getTime()
+	{
+		return now;
+	}
+
+	/**
+	 * Returns the indexes of the features of an instance of the window.
+	 *
+	 * @param instance
+	 */
+	int[] getFeatures(int instance)
+	{
+		return features[instance & (times.length - 1)];
+	}
+
+	/**
+	 * @return true if instances are weighted by their age
+	 */
+	boolean isWeighted()
+	{
+		return weights != null;
+	}
+
+	/**
+	 * Returns the weight of an instance of the window, or 1 if instances are
+	 * not weighted.
+	 *
+	 * @param instance
+	 */
+	double getWeight(int instance)
+	{
+		return weights != null ? weights[instance & (times.length - 1)] : 1;
+	}
+
+	/**
+	 * @return the sum of the weights of all instances of the window
+	 */
+	double getTotalWeight()
+	{
+		return weights != null ? totalWeight : size;
+	}
+
+	/**
+	 * Returns the sum of the weights of the instances of a class. It is only
+	 * kept when instances are weighted.
+	 *
+	 * @param clazz
+	 */
+	double getClassWeight(int clazz)
+	{
+		return clazz < classWeights.length ? classWeights[clazz] : 0;
+	}
+}
@@ -0,0 +1,152 @@
+package br.ufmg.dcc.bigdata.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+
+import weka.classifiers.rules.LAC;
+import weka.classifiers.rules.LACTestData;
+
+/**
+ * Checks {@link LadoopTrainer} without a cluster: the lines of training files
+ * are split among instances of {@link LadoopTrainer.Map}, keyed by their
+ * offsets as the job reads them, the occurrences they emit are partitioned
+ * among reducers by label, shuffled and collected as
+ * {@link LadoopTrainer.Reduce} does, and the records of all reducers are
+ * assembled into a model. It must be the same model, byte for byte, as the
+ * one trained by reading the files one after the other.
+ */
+public final class LadoopTrainerTest {
+
+	private static final int REDUCERS = 3;
+
+	/**
+	 * The number of lines of each training file.
+	 */
+	private static final int[] FILE_SIZES = { 150, 1, 250, 199 };
+
+	/**
+	 * Each training file is read in this many splits.
+	 */
+	private static final int SPLITS = 3;
+
+	private LadoopTrainerTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (boolean positional : new boolean[] { false, true }) {
+			List<String> lines = LACTestData.lines(71, 0, 600, 60, positional);
+			List<String> test = LACTestData.lines(73, 600, 100, 60, positional);
+			LAC expected = LACTestData.train(new LAC(), lines);
+			LAC distributed = train(lines, positional);
+			String what = positional ? "positional training job" : "training job";
+			LACTestData.check(Arrays.equals(LACTestData.save(expected), LACTestData.save(distributed)), what
+					+ " built another model");
+			LACTestData.checkSameProbabilities(expected, distributed, test, what);
+		}
+	}
+
+	/**
+	 * Trains a classifier with the lines, as the job does with training files
+	 * of {@link #FILE_SIZES} lines.
+	 */
+	private static LAC train(List<String> lines, boolean positional) throws Exception {
+		List<TreeMap<String, List<LadoopTrainer.Occurrence>>> reducers =
+				new ArrayList<TreeMap<String, List<LadoopTrainer.Occurrence>>>();
+		for (int i = 0; i < REDUCERS; i++) {
+			reducers.add(new TreeMap<String, List<LadoopTrainer.Occurrence>>());
+		}
+		int first = lines.size();
+		// files are mapped in reverse order, as tasks may run in any order
+		for (int file = FILE_SIZES.length - 1; file >= 0; file--) {
+			first -= FILE_SIZES[file];
+			List<String> fileLines = lines.subList(first, first + FILE_SIZES[file]);
+			for (int split = 0; split < SPLITS; split++) {
+				map(fileLines, file, positional, split * fileLines.size() / SPLITS, (split + 1) * fileLines.size()
+						/ SPLITS, reducers);
+			}
+		}
+
+		Random random = new Random(79);
+		LadoopTrainer.Assembler assembler = new LadoopTrainer.Assembler(positional);
+		for (TreeMap<String, List<LadoopTrainer.Occurrence>> reducer : reducers) {
+			for (java.util.Map.Entry<String, List<LadoopTrainer.Occurrence>> entry : reducer.entrySet()) {
+				// values reach a reducer in any order
+				Collections.shuffle(entry.getValue(), random);
+				assembler.add(entry.getKey(), copy(LadoopTrainer.collect(entry.getValue())));
+			}
+		}
+		return assembler.build(new LAC());
+	}
+
+	/**
+	 * Runs a mapper on the given lines of a training file, each keyed by its
+	 * offset in the file as the input format keys it, and sends each
+	 * occurrence it emits to the reducer of its label.
+	 */
+	private static void map(List<String> fileLines, int file, boolean positional, int from, int to,
+			final List<TreeMap<String, List<LadoopTrainer.Occurrence>>> reducers) throws Exception {
+		final HashPartitioner<Text, LadoopTrainer.Occurrence> partitioner =
+				new HashPartitioner<Text, LadoopTrainer.Occurrence>();
+		LadoopTrainer.Map mapper = new LadoopTrainer.Map() {
+			@Override
+			void emit(Text label, LadoopTrainer.Occurrence occurrence, Context context) throws IOException {
+				TreeMap<String, List<LadoopTrainer.Occurrence>> reducer = reducers.get(partitioner.getPartition(label,
+						occurrence, reducers.size()));
+				List<LadoopTrainer.Occurrence> occurrences = reducer.get(label.toString());
+				if (occurrences == null) {
+					occurrences = new ArrayList<LadoopTrainer.Occurrence>();
+					reducer.put(label.toString(), occurrences);
+				}
+				// the mapper reuses its occurrence
+				occurrences.add(copy(occurrence));
+			}
+		};
+		mapper.configure(positional, file);
+
+		long offset = 0;
+		for (int i = 0; i < to; i++) {
+			byte[] line = fileLines.get(i).getBytes("UTF-8");
+			if (i >= from) {
+				mapper.map(new LongWritable(offset), new Text(line), null);
+			}
+			offset += line.length + 1;
+		}
+	}
+
+	/**
+	 * Copies an occurrence through its serialized form, as it reaches a
+	 * reducer.
+	 */
+	private static LadoopTrainer.Occurrence copy(LadoopTrainer.Occurrence occurrence) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		occurrence.write(new DataOutputStream(bytes));
+		LadoopTrainer.Occurrence copy = new LadoopTrainer.Occurrence();
+		copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		return copy;
+	}
+
+	/**
+	 * Copies postings through their serialized form, as they are read from
+	 * the output of a reducer.
+	 */
+	private static LadoopTrainer.Postings copy(LadoopTrainer.Postings postings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		postings.write(new DataOutputStream(bytes));
+		LadoopTrainer.Postings copy = new LadoopTrainer.Postings();
+		copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		return copy;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import static weka.classifiers.rules.LACTestData.check;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the rules extracted with support pruning: the counts of supported
+ * patterns must be those of the plain intersections, and a pruned pattern
+ * must be unsupported, and extracted again once the window shrank enough for
+ * it to be supported.
+ */
+final class LACPruningTest
+{
+	private static final double MIN_SUPPORT = 0.05;
+
+	public static void main(String[] args) throws Exception
+	{
+		checkCountsMatchIntersections();
+		checkPrunedPatternIsReplaced();
+	}
+
+	/**
+	 * Compares the counts of all patterns of up to three features with the
+	 * intersections of the instances containing each feature. Patterns are
+	 * extracted by increasing size, as they are when an instance is scored,
+	 * so larger ones are pruned from the cached bounds of their subsets.
+	 */
+	private static void checkCountsMatchIntersections() throws Exception
+	{
+		LAC classifier = LACTestData.train(new LAC(0, MIN_SUPPORT, 4), LACTestData.lines(17, 0, 400, 30, false));
+		LACInstances instances = classifier.getTrainingInstances();
+		LACRules rules = classifier.getRules();
+		List<Integer> features = new ArrayList<Integer>();
+		for (int i = 0; i < 30; i++)
+		{
+			int feature = instances.lookupFeature("f" + i, 0);
+			if (feature >= 0)
+			{
+				features.add(feature);
+			}
+		}
+
+		int pruned = 0;
+		for (int size = 1; size <= 3; size++)
+		{
+			int[] pattern = new int[size];
+			int[] chosen = new int[size];
+			for (int i = 0; i < size; i++)
+			{
+				chosen[i] = i;
+			}
+			while (chosen[size - 1] < features.size())
+			{
+				for (int i = 0; i < size; i++)
+				{
+					pattern[i] = features.get(chosen[i]);
+				}
+				Arrays.sort(pattern);
+				if (checkCounts(instances, rules, pattern))
+				{
+					pruned++;
+				}
+				next(chosen, features.size());
+			}
+		}
+		check(pruned > 0, "No pattern was pruned");
+	}
+
+	/**
+	 * Compares the rules of a pattern with its instances.
+	 *
+	 * @return true if the pattern was pruned
+	 */
+	private static boolean checkCounts(LACInstances instances, LACRules rules, int[] pattern)
+	{
+		int numClasses = instances.getAllClasses().size();
+		int[] expected = new int[numClasses];
+		int total = 0;
+		LACPostingList first = instances.getInstancesWithFeature(pattern[0]);
+		for (int i = 0; i < first.size(); i++)
+		{
+			int instance = first.get(i);
+			boolean contained = true;
+			for (int j = 1; j < pattern.length && contained; j++)
+			{
+				contained = instances.getInstancesWithFeature(pattern[j]).contains(instance);
+			}
+			if (contained)
+			{
+				expected[instances.getClassOfInstance(instance)]++;
+				total++;
+			}
+		}
+
+		String what = Arrays.toString(pattern);
+		int[] packed = rules.getRules(new LACPatternKey().set(pattern, pattern.length), new LACCacheStatistics());
+		if (LACPatternCounts.isPruned(packed))
+		{
+			check((double) total / instances.length() <= MIN_SUPPORT, what + " was pruned, but is supported");
+			check(LACPatternCounts.bound(packed) >= total, what + " was pruned with bound "
+					+ LACPatternCounts.bound(packed) + " below its count " + total);
+			return true;
+		}
+		check(LACPatternCounts.total(packed) == total, what + " counted " + LACPatternCounts.total(packed)
+				+ " instances instead of " + total);
+		int[] count = new int[numClasses];
+		for (int i = 0; i < LACPatternCounts.numClasses(packed); i++)
+		{
+			count[LACPatternCounts.classAt(packed, i)] = LACPatternCounts.countAt(packed, i);
+		}
+		check(Arrays.equals(count, expected), what + " counted " + Arrays.toString(count) + " instead of "
+				+ Arrays.toString(expected));
+		return false;
+	}
+
+	/**
+	 * Moves to the next combination of <code>chosen.length</code> indexes
+	 * below <code>n</code>, in lexicographic order.
+	 */
+	private static void next(int[] chosen, int n)
+	{
+		int i = chosen.length - 1;
+		while (i > 0 && chosen[i] == n - chosen.length + i)
+		{
+			i--;
+		}
+		chosen[i]++;
+		for (int j = i + 1; j < chosen.length; j++)
+		{
+			chosen[j] = chosen[j - 1] + 1;
+		}
+	}
+
+	/**
+	 * Prunes a pattern of new features, which occur too rarely, then expires
+	 * the older instances, so the pattern becomes supported: it must be
+	 * extracted again, and the new counts cached in place of the bound.
+	 */
+	private static void checkPrunedPatternIsReplaced() throws Exception
+	{
+		LAC classifier = new LAC(0, MIN_SUPPORT, 3);
+		classifier.setWindowAge(10);
+		LACTestData.train(classifier, LACTestData.lines(29, 0, 200, 30, false));
+		classifier.advanceTime(5);
+		classifier.updateClassifier(LACTestData.split(Arrays.asList("200 CLASS=A f1 x1 x2", "201 CLASS=A x1 x2",
+				"202 CLASS=B f2 x1 x2")));
+
+		LACInstances instances = classifier.getTrainingInstances();
+		LACRules rules = classifier.getRules();
+		int[] pattern = { instances.lookupFeature("x1", 0), instances.lookupFeature("x2", 0) };
+		Arrays.sort(pattern);
+		LACPatternKey key = new LACPatternKey().set(pattern, pattern.length);
+		check(LACPatternCounts.isPruned(rules.getRules(key, new LACCacheStatistics())),
+				"The rare pattern was not pruned");
+
+		classifier.advanceTime(10);
+		LACCacheStatistics statistics = new LACCacheStatistics();
+		int[] packed = rules.getRules(key, statistics);
+		check(statistics.getMisses() == 1, "The pruned pattern was not extracted again");
+		check(!LACPatternCounts.isPruned(packed) && LACPatternCounts.total(packed) == 3,
+				"The pattern counted " + Arrays.toString(packed) + " in the shrunk window");
+
+		statistics = new LACCacheStatistics();
+		int[] cached = rules.getRules(key, statistics);
+		check(statistics.getMisses() == 0 && statistics.getHits() == 1,
+				"The pattern extracted again was not cached in place of its bound");
+		check(Arrays.equals(cached, packed), "The cached pattern counted " + Arrays.toString(cached));
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import static weka.classifiers.rules.LACTestData.check;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks sharded models: a classifier fetching the instances containing each
+ * feature from shard servers must give the same probabilities as the model
+ * in the heap, whatever the number of shards, and when fetched lists are
+ * evicted while an instance is scored. A refused update must leave the model
+ * as it was. Servers run in this process, each on a thread of its own.
+ */
+final class LACShardTest
+{
+	public static void main(String[] args) throws Exception
+	{
+		for (boolean positional : new boolean[] { false, true })
+		{
+			List<String> lines = LACTestData.lines(61, 0, 500, 60, positional);
+			List<String> test = LACTestData.lines(67, 500, 100, 70, positional);
+			LAC expected = LACTestData.train(new LAC(0.01, 0.01, 4), lines);
+			File model = LACTestData.write(expected);
+			for (int numShards = 1; numShards <= 4; numShards++)
+			{
+				checkShards(expected, model, numShards, test);
+			}
+		}
+	}
+
+	private static void checkShards(LAC expected, File model, int numShards, List<String> test) throws Exception
+	{
+		List<ServerSocket> servers = new ArrayList<ServerSocket>();
+		try
+		{
+			List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+			for (int shard = 0; shard < numShards; shard++)
+			{
+				ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+				servers.add(server);
+				addresses.add(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+				start(readShard(model, shard, numShards), server);
+			}
+
+			LAC sharded;
+			FileInputStream file = new FileInputStream(model);
+			try
+			{
+				sharded = LAC.mapModel(file.getChannel(), addresses);
+			}
+			finally
+			{
+				file.close();
+			}
+			String what = numShards + " shards";
+			LACTestData.checkSameProbabilities(expected, sharded, test, what);
+			// fetched lists are evicted before they are used, and fetched again
+			for (int capacity = 1; capacity >= 0; capacity--)
+			{
+				sharded.setRulesCacheCapacity(capacity);
+				sharded.setIntersectionCacheCapacity(capacity);
+				LACTestData.checkSameProbabilities(expected, sharded, test, what + " caching " + capacity);
+			}
+
+			try
+			{
+				sharded.updateClassifier(LACTestData.split(test.subList(0, 50)));
+				check(false, what + " were updated");
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// sharded models cannot be updated
+			}
+			LACTestData.checkSameProbabilities(expected, sharded, test, what + " after a refused update");
+		}
+		finally
+		{
+			for (ServerSocket server : servers)
+			{
+				server.close();
+			}
+		}
+	}
+
+	private static LACShard readShard(File model, int shard, int numShards) throws IOException
+	{
+		FileInputStream file = new FileInputStream(model);
+		try
+		{
+			return new LACModelReader(file.getChannel()).readShard(shard, numShards);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Serves a shard on a daemon thread, until the server socket is closed.
+	 */
+	private static void start(LACShard shard, final ServerSocket server)
+	{
+		final LACShardServer shardServer = new LACShardServer(shard);
+		Thread thread = new Thread("shard " + shard.getFirst())
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					shardServer.serve(server);
+				}
+				catch (IOException e)
+				{
+					// the server socket was closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Data and checks shared by the regression tests of the classifier. Lines are
+ * generated in the LAC format with a fixed seed: each class prefers a slice
+ * of the features, and a few features are frequent in every class, so that
+ * rules of every size are found, and some patterns are pruned. It is public
+ * for the tests of other packages.
+ */
+public final class LACTestData
+{
+	private LACTestData()
+	{
+	}
+
+	/**
+	 * Generates lines in the LAC format.
+	 *
+	 * @param seed
+	 * @param first
+	 *            the id of the first line
+	 * @param count
+	 *            the number of lines
+	 * @param numFeatures
+	 * @param positional
+	 *            if true, features are written as <code>w[n]</code>, so they
+	 *            are told apart by their positions
+	 */
+	public static List<String> lines(long seed, int first, int count, int numFeatures, boolean positional)
+	{
+		int numClasses = 3;
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++)
+		{
+			int clazz = random.nextInt(numClasses);
+			StringBuilder line = new StringBuilder().append(first + i).append(" CLASS=").append((char) ('A' + clazz));
+			int length = 3 + random.nextInt(8);
+			for (int j = 0; j < length; j++)
+			{
+				int feature;
+				if (random.nextInt(2) == 0)
+				{
+					// the slice of the class
+					feature = clazz * numFeatures / numClasses + random.nextInt(numFeatures / numClasses);
+				}
+				else
+				{
+					double skewed = random.nextDouble();
+					feature = (int) (numFeatures * skewed * skewed * skewed);
+				}
+				line.append(positional ? " w[" + feature + "]" : " f" + feature);
+			}
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	/**
+	 * Trains a classifier, which keeps its settings, on the given lines.
+	 *
+	 * @param classifier
+	 * @param lines
+	 * @return the given classifier
+	 */
+	public static LAC train(LAC classifier, List<String> lines) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (String line : lines)
+		{
+			bytes.write((line + "\n").getBytes(LACTokenizer.CHARSET));
+		}
+		classifier.buildClassifierFromLacStyle(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		return classifier;
+	}
+
+	/**
+	 * Returns a model, as written by {@link LAC#saveModel(java.io.OutputStream)}.
+	 *
+	 * @param classifier
+	 */
+	public static byte[] save(LAC classifier) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		classifier.saveModel(bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a model to a temporary file, deleted when the virtual machine
+	 * exits, which can then be mapped.
+	 *
+	 * @param classifier
+	 */
+	public static File write(LAC classifier) throws Exception
+	{
+		File model = File.createTempFile("lac", ".model");
+		model.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(model);
+		try
+		{
+			classifier.saveModel(out);
+		}
+		finally
+		{
+			out.close();
+		}
+		return model;
+	}
+
+	/**
+	 * Maps a copy of a model, as {@link LAC#mapModel(java.nio.channels.FileChannel)}
+	 * does.
+	 *
+	 * @param classifier
+	 */
+	public static LAC map(LAC classifier) throws Exception
+	{
+		FileInputStream in = new FileInputStream(write(classifier));
+		try
+		{
+			return LAC.mapModel(in.getChannel());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Splits lines into tokens, as classifiers take them.
+	 *
+	 * @param lines
+	 */
+	public static List<String[]> split(List<String> lines)
+	{
+		List<String[]> instances = new ArrayList<String[]>(lines.size());
+		for (String line : lines)
+		{
+			instances.add(line.split(" "));
+		}
+		return instances;
+	}
+
+	/**
+	 * Checks that two classifiers give the same probabilities, bit for bit, to
+	 * every test line. Probabilities are matched by class label, as classes
+	 * may be numbered in another order.
+	 *
+	 * @param expected
+	 * @param actual
+	 * @param test
+	 * @param what
+	 *            describes the classifiers being compared
+	 */
+	public static void checkSameProbabilities(LAC expected, LAC actual, List<String> test, String what)
+			throws Exception
+	{
+		checkSameProbabilities(expected, actual, test, 0, what);
+	}
+
+	/**
+	 * Checks that two classifiers give the same probabilities, up to the given
+	 * tolerance, to every test line, as
+	 * {@link #checkSameProbabilities(LAC, LAC, List, String)} does. Rules may
+	 * be summed in another order when features are numbered in another order.
+	 *
+	 * @param expected
+	 * @param actual
+	 * @param test
+	 * @param tolerance
+	 * @param what
+	 *            describes the classifiers being compared
+	 */
+	public static void checkSameProbabilities(LAC expected, LAC actual, List<String> test, double tolerance,
+			String what) throws Exception
+	{
+		for (String line : test)
+		{
+			String[] instance = line.split(" ");
+			Map<String, Double> wanted = byLabel(expected, expected.distributionForInstance(instance).getProbs());
+			Map<String, Double> got = byLabel(actual, actual.distributionForInstance(instance).getProbs());
+			boolean same = wanted.keySet().equals(got.keySet());
+			for (String label : wanted.keySet())
+			{
+				same = same && Math.abs(wanted.get(label) - got.get(label)) <= tolerance;
+			}
+			check(same, what + ": " + got + " instead of " + wanted + " for " + line);
+		}
+	}
+
+	private static Map<String, Double> byLabel(LAC classifier, double[] probabilities)
+	{
+		Map<String, Double> labeled = new TreeMap<String, Double>();
+		for (int i = 0; i < probabilities.length; i++)
+		{
+			labeled.put(classifier.getTrainingInstances().getClassByIndex(i).getLabel(), probabilities[i]);
+		}
+		return labeled;
+	}
+
+	/**
+	 * @param condition
+	 * @param message
+	 * @throws AssertionError
+	 *             with the given message, if the condition does not hold
+	 */
+	public static void check(boolean condition, String message)
+	{
+		if (!condition)
+		{
+			throw new AssertionError(message);
+		}
+	}
+}
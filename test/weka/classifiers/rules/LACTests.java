@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import br.ufmg.dcc.bigdata.hadoop.LadoopTrainerTest;
+
+/**
+ * Runs the regression tests of the classifier, which need nothing but the
+ * classes under test. A failed check throws an {@link AssertionError}, so the
+ * process exits with an error.
+ *
+ * Usage: java weka.classifiers.rules.LACTests
+ */
+public final class LACTests
+{
+	private LACTests()
+	{
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		LACPruningTest.main(args);
+		LACUpdateTest.main(args);
+		LACWindowTest.main(args);
+		LACShardTest.main(args);
+		LadoopTrainerTest.main(args);
+		System.out.println("OK");
+	}
+}
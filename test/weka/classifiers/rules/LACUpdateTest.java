@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import static weka.classifiers.rules.LACTestData.check;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks {@link LAC#updateClassifier(List)}: after each update, a classifier
+ * must give the same probabilities, and save the same model, as one trained
+ * at once on all the instances it was given, in every occurrence mode and
+ * when it was mapped. Instances are classified between updates, so the caches
+ * are warm when they are invalidated.
+ */
+final class LACUpdateTest
+{
+	public static void main(String[] args) throws Exception
+	{
+		List<String> lines = LACTestData.lines(41, 0, 600, 60, false);
+		List<String> test = LACTestData.lines(43, 600, 100, 60, false);
+		for (LACFeatureOccurrences.Mode mode : LACFeatureOccurrences.Mode.values())
+		{
+			LAC updated = LACTestData.train(classifier(mode), lines.subList(0, 300));
+			checkUpdates(updated, mode, lines, test, mode.toString());
+			LAC mapped = LACTestData.map(LACTestData.train(classifier(mode), lines.subList(0, 300)));
+			checkUpdates(mapped, mode, lines, test, "mapped " + mode);
+		}
+	}
+
+	private static LAC classifier(LACFeatureOccurrences.Mode mode)
+	{
+		LAC classifier = new LAC(0.01, 0.01, 4);
+		classifier.setOccurrenceMode(mode);
+		return classifier;
+	}
+
+	/**
+	 * Updates a classifier trained on the first 300 lines with the others,
+	 * some at a time, and compares it with one trained on as many lines after
+	 * each update.
+	 */
+	private static void checkUpdates(LAC updated, LACFeatureOccurrences.Mode mode, List<String> lines,
+			List<String> test, String what) throws Exception
+	{
+		LACTestData.checkSameProbabilities(LACTestData.train(classifier(mode),
+				lines.subList(0, 300)), updated, test, what);
+		for (int end : new int[] { 301, 350, 450, lines.size() })
+		{
+			int start = updated.getTrainingInstances().length();
+			updated.updateClassifier(LACTestData.split(lines.subList(start, end)));
+			LAC expected = LACTestData.train(classifier(mode), lines.subList(0, end));
+			String step = what + " updated with lines " + start + " to " + end;
+			LACTestData.checkSameProbabilities(expected, updated, test, step);
+			check(Arrays.equals(LACTestData.save(expected), LACTestData.save(updated)), step
+					+ " saved another model");
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package weka.classifiers.rules;
+
+import static weka.classifiers.rules.LACTestData.check;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks sliding windows: as instances stream in and time passes, a windowed
+ * classifier must give the same probabilities as one trained at once on the
+ * instances of its window only. Instances are classified between updates, so
+ * the caches are warm when instances expire.
+ */
+final class LACWindowTest
+{
+	private static final int WINDOW_SIZE = 200;
+	private static final long WINDOW_AGE = 3;
+	/**
+	 * Features are numbered in another order by the classifiers trained on a
+	 * window, so rules are summed in another order.
+	 */
+	private static final double TOLERANCE = 1e-12;
+
+	public static void main(String[] args) throws Exception
+	{
+		List<String> lines = LACTestData.lines(53, 0, 800, 60, false);
+		List<String> test = LACTestData.lines(59, 800, 100, 60, false);
+		checkSizeWindow(lines, test);
+		checkAgeWindow(lines, test);
+		checkDecay(lines, test);
+		checkRenumbering(lines, test);
+	}
+
+	private static LAC classifier()
+	{
+		return new LAC(0.01, 0.02, 4);
+	}
+
+	/**
+	 * Streams lines into a window of the last {@link #WINDOW_SIZE} ones.
+	 */
+	private static void checkSizeWindow(List<String> lines, List<String> test) throws Exception
+	{
+		LAC windowed = classifier();
+		windowed.setWindowSize(WINDOW_SIZE);
+		LACTestData.train(windowed, lines.subList(0, WINDOW_SIZE));
+		LACTestData.checkSameProbabilities(LACTestData.train(classifier(), lines.subList(0, WINDOW_SIZE)), windowed,
+				test, TOLERANCE, "window of " + WINDOW_SIZE);
+		int start = WINDOW_SIZE;
+		for (int end : new int[] { 201, 250, 400, 401, lines.size() })
+		{
+			windowed.updateClassifier(LACTestData.split(lines.subList(start, end)));
+			LAC expected = LACTestData.train(classifier(), lines.subList(end - WINDOW_SIZE, end));
+			LACTestData.checkSameProbabilities(expected, windowed, test, TOLERANCE, "window of " + WINDOW_SIZE
+					+ " ending at " + end);
+			start = end;
+		}
+	}
+
+	/**
+	 * Streams 100 lines per time unit into a window of the lines added less
+	 * than {@link #WINDOW_AGE} units ago.
+	 */
+	private static void checkAgeWindow(List<String> lines, List<String> test) throws Exception
+	{
+		LAC windowed = classifier();
+		windowed.setWindowAge(WINDOW_AGE);
+		LACTestData.train(windowed, lines.subList(0, 100));
+		for (int time = 1; time * 100 < lines.size(); time++)
+		{
+			windowed.advanceTime(time);
+			int start = (int) Math.max(0, time - WINDOW_AGE + 1) * 100;
+			LACTestData.checkSameProbabilities(LACTestData.train(classifier(), lines.subList(start, time * 100)),
+					windowed, test, TOLERANCE, "window of age " + WINDOW_AGE + " at " + time + " before its update");
+			windowed.updateClassifier(LACTestData.split(lines.subList(time * 100, time * 100 + 100)));
+			LACTestData.checkSameProbabilities(LACTestData.train(classifier(), lines.subList(start, time * 100 + 100)),
+					windowed, test, TOLERANCE, "window of age " + WINDOW_AGE + " at " + time);
+		}
+	}
+
+	/**
+	 * Weighs lines with a decay of half per time unit: lines added one unit
+	 * before others must count as half of them, as if the others were trained
+	 * on twice.
+	 */
+	private static void checkDecay(List<String> lines, List<String> test) throws Exception
+	{
+		LAC decayed = classifier();
+		decayed.setDecayRate(Math.log(2));
+		LACTestData.train(decayed, lines.subList(0, 300));
+		decayed.advanceTime(1);
+		decayed.updateClassifier(LACTestData.split(lines.subList(300, 400)));
+
+		List<String> twice = new ArrayList<String>(lines.subList(0, 400));
+		twice.addAll(lines.subList(300, 400));
+		LACTestData.checkSameProbabilities(LACTestData.train(classifier(), twice), decayed, test, TOLERANCE,
+				"decay of half per unit");
+	}
+
+	/**
+	 * Streams lines into two windows, one of which renumbers its instances
+	 * from 0 after each update, as it does before numbers overflow: both must
+	 * give the same probabilities, bit for bit.
+	 */
+	private static void checkRenumbering(List<String> lines, List<String> test) throws Exception
+	{
+		LAC[] windows = new LAC[2];
+		for (int i = 0; i < windows.length; i++)
+		{
+			windows[i] = classifier();
+			windows[i].setWindowSize(WINDOW_SIZE);
+			windows[i].setWindowAge(WINDOW_AGE);
+			windows[i].setDecayRate(0.5);
+			LACTestData.train(windows[i], lines.subList(0, 100));
+		}
+		for (int time = 1; time * 100 < lines.size(); time++)
+		{
+			for (LAC window : windows)
+			{
+				window.advanceTime(time);
+				window.updateClassifier(LACTestData.split(lines.subList(time * 100, time * 100 + 100)));
+			}
+			LACTestData.checkSameProbabilities(windows[0], windows[1], test, "window renumbered at " + time);
+			windows[1].getTrainingInstances().renumber();
+			check(windows[1].getTrainingInstances().getFirstInstance() == 0, "The window was not renumbered from 0");
+			// rules are extracted again, from the cached intersections
+			windows[1].setRulesCacheCapacity(windows[1].getRulesCacheCapacity());
+			LACTestData.checkSameProbabilities(windows[0], windows[1], test, "window renumbered at " + time);
+		}
+	}
+}